@@ -30,13 +30,17 @@ import io.nuls.contract.sdk.Msg;
 import io.nuls.contract.sdk.annotation.Payable;
 import io.nuls.contract.sdk.annotation.Required;
 import io.nuls.contract.sdk.annotation.View;
+import io.nuls.pocm.contract.event.BatchTransferEvent;
 import io.nuls.pocm.contract.event.DepositInfoEvent;
 import io.nuls.pocm.contract.event.ErrorEvent;
 import io.nuls.pocm.contract.event.MiningInfoEvent;
 import io.nuls.pocm.contract.manager.ConsensusManager;
+import io.nuls.pocm.contract.manager.TopDepositorManager;
 import io.nuls.pocm.contract.manager.TotalDepositManager;
+import io.nuls.pocm.contract.manager.UnlockIndexManager;
 import io.nuls.pocm.contract.model.*;
 import io.nuls.pocm.contract.token.PocmToken;
+import io.nuls.pocm.contract.util.StateDigest;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
@@ -70,6 +74,15 @@ public class Pocm extends PocmToken implements Contract {
 
     //接收空投地址列表
     private List<AirdropperInfo> ariDropperInfos = new ArrayList<AirdropperInfo>();
+    //空投列表中合约创建者的记录序号，合约创建者分批空投的Token从该记录的份额中扣除
+    private int ownerAirdropperIndex = -1;
+    //转移所有权后由新拥有者分批空投时，空投列表中记录其扣减份额(负数)的记录序号(key为拥有者地址)
+    private Map<String, Integer> ownerDebitAirdropperIndex = new HashMap<String, Integer>();
+    //分批空投是否已完成
+    private boolean airdropCompleted = false;
+    //分批空投的地址数量及Token总额
+    private int stagedAirdropCount = 0;
+    private BigInteger stagedAirdropAmount = BigInteger.ZERO;
 
     //用户抵押信息(key为抵押者地址）
     private Map<String, DepositInfo> depositUsers = new HashMap<String, DepositInfo>();
@@ -81,11 +94,33 @@ public class Pocm extends PocmToken implements Contract {
     private TotalDepositManager totalDepositManager;
     // 总抵押地址数量
     private int totalDepositAddressCount;
+    // 挖矿地址数量
+    private int totalMiningAddressCount;
+    // 挖矿明细数量，即有效的抵押笔数
+    private int totalMiningDetailCount;
+    // 累计挖出并发放的Token数量
+    private BigInteger totalMinedAmount = BigInteger.ZERO;
+    // 截至已统计的奖励周期，按奖励周期统计信息累计产出的Token数量(单位：Token)
+    private BigDecimal emittedRewardAmount = BigDecimal.ZERO;
+    // 奖励周期统计信息中已累计产出的条数
+    private int emittedRewardIndex = 0;
+
+    // 是否将未领取的挖矿奖励计入Token余额，转出时自动领取
+    private boolean lazyMiningBalance = false;
+
+    // 抵押记录与挖矿记录的状态摘要，供链下索引器校验数据一致性
+    private StateDigest stateDigest = new StateDigest();
+
+    // 按解锁高度排序的抵押索引
+    private UnlockIndexManager unlockIndexManager = new UnlockIndexManager();
+
+    // 抵押排行榜
+    private TopDepositorManager topDepositorManager = new TopDepositorManager();
 
     //每个奖励周期的抵押金额索引，k-v：奖励周期-List序号
     private Map<Integer, Integer> totalDepositIndex = new LinkedHashMap<Integer, Integer>();
-    //抵押金额列表，与索引表联合使用
-    private List<RewardCycleInfo> totalDepositList = new LinkedList<RewardCycleInfo>();
+    //抵押金额列表，与索引表联合使用，按奖励周期升序追加，按序号随机访问
+    private List<RewardCycleInfo> totalDepositList = new ArrayList<RewardCycleInfo>();
     //上一次抵押数量有变动的奖励周期
     private int lastCalcCycle = 0;
 
@@ -97,6 +132,21 @@ public class Pocm extends PocmToken implements Contract {
 
     private static long NUMBER = 1L;
 
+    // 单次查询历史价格的最大数据点数
+    private static final int MAX_HISTORY_POINTS = 100;
+    // 单次查询解锁抵押的最大数量
+    private static final int MAX_UNLOCK_QUERY_COUNT = 100;
+    // 单次查询解锁抵押最多检查的索引项数量(包括已退出的失效项)
+    private static final int MAX_UNLOCK_SCAN_COUNT = 1000;
+    // 单次清除解锁索引最多处理的索引项数量
+    private static final int MAX_UNLOCK_COMPACT_COUNT = 1000;
+    // 抵押排行榜的最大查询数量
+    private static final int MAX_TOP_DEPOSITOR_COUNT = 50;
+    // 每笔交易顺带自动退还解锁押金的最大用户数量
+    private static final int AUTO_REFUND_COUNT = 3;
+    // 单次分批空投的最大地址数量
+    private static final int MAX_AIRDROP_BATCH_COUNT = 100;
+
     // 共识管理器
     private ConsensusManager consensusManager;
 
@@ -136,6 +186,7 @@ public class Pocm extends PocmToken implements Contract {
         this.currentPrice = price;
         BigInteger receiverTotalAmount = BigInteger.ZERO;
         if (receiverAddress != null && receiverAmount != null) {
+            // 地址不合法时创建Address会失败，转换同时完成地址校验
             Address[] receiverAddr = convertStringToAddres(receiverAddress);
             //给接收者地址空投Token
             for (int i = 0; i < receiverAddress.length; i++) {
@@ -162,6 +213,7 @@ public class Pocm extends PocmToken implements Contract {
             AirdropperInfo info = new AirdropperInfo();
             info.setReceiverAddress(Msg.sender().toString());
             info.setAirdropperAmount(initialAmount.subtract(receiverTotalAmount).multiply(BigInteger.TEN.pow(decimals)));
+            ownerAirdropperIndex = ariDropperInfos.size();
             ariDropperInfos.add(info);
         }
 
@@ -182,7 +234,7 @@ public class Pocm extends PocmToken implements Contract {
     @Override
     @Payable
     public void _payable(String[][] args) {
-        consensusManager._payable(args);
+        consensusManager._payable(args, totalDepositManager.getTotalDeposit());
     }
 
     /**
@@ -222,9 +274,15 @@ public class Pocm extends PocmToken implements Contract {
         detailInfo.setMiningAddress(userStr);
         detailInfo.setDepositNumber(depositNumber);
         info.setDepositorAddress(userStr);
+        this.settleConsensusAward(info);
         info.getDepositDetailInfos().put(depositNumber, detailInfo);
+        info.updateDepositHeight(currentHeight);
+        stateDigest.add(depositDigestRecord(userStr, detailInfo));
+        unlockIndexManager.add(depositNumber, userStr, currentHeight + minimumLocked + 1);
         info.setDepositTotalAmount(info.getDepositTotalAmount().add(value));
         info.setDepositCount(info.getDepositCount() + 1);
+        this.resetConsensusAwardDebt(info);
+        topDepositorManager.update(userStr, info.getDepositTotalAmount());
 
         //将抵押数加入队列中
         this.putDepositToMap(value, currentHeight);
@@ -234,6 +292,7 @@ public class Pocm extends PocmToken implements Contract {
         initMingInfo(currentHeight, userStr, userStr, depositNumber);
         totalDepositManager.add(value);
         emit(new DepositInfoEvent(info));
+        this.autoRefundUnLockDeposit();
     }
 
     /**
@@ -265,9 +324,15 @@ public class Pocm extends PocmToken implements Contract {
         detailInfo.setMiningAddress(miningAddress.toString());
         detailInfo.setDepositNumber(depositNumber);
         info.setDepositorAddress(userStr);
+        this.settleConsensusAward(info);
         info.getDepositDetailInfos().put(depositNumber, detailInfo);
+        info.updateDepositHeight(currentHeight);
+        stateDigest.add(depositDigestRecord(userStr, detailInfo));
+        unlockIndexManager.add(depositNumber, userStr, currentHeight + minimumLocked + 1);
         info.setDepositTotalAmount(info.getDepositTotalAmount().add(value));
         info.setDepositCount(info.getDepositCount() + 1);
+        this.resetConsensusAwardDebt(info);
+        topDepositorManager.update(userStr, info.getDepositTotalAmount());
 
         //将抵押数加入队列中
         this.putDepositToMap(value, currentHeight);
@@ -276,6 +341,7 @@ public class Pocm extends PocmToken implements Contract {
         initMingInfo(currentHeight, miningAddress.toString(), userStr, depositNumber);
         totalDepositManager.add(value);
         emit(new DepositInfoEvent(info));
+        this.autoRefundUnLockDeposit();
     }
 
     /**
@@ -296,6 +362,7 @@ public class Pocm extends PocmToken implements Contract {
         DepositInfo depositInfo = getDepositInfo(userString);
         // 发放奖励
         this.receive(depositInfo);
+        this.settleConsensusAward(depositInfo);
         BigInteger deposit;
         MiningInfo miningInfo;
 
@@ -313,6 +380,8 @@ public class Pocm extends PocmToken implements Contract {
             //从队列中退出抵押金额
             for (Long key : depositDetailInfos.keySet()) {
                 DepositDetailInfo detailInfo = depositDetailInfos.get(key);
+                stateDigest.remove(depositDigestRecord(userString, detailInfo));
+                unlockIndexManager.remove(detailInfo.getDepositNumber());
                 this.quitDepositToMap(detailInfo.getDepositAmount(), currentHeight, detailInfo.getDepositHeight());
             }
             depositInfo.clearDepositDetailInfos();
@@ -323,11 +392,16 @@ public class Pocm extends PocmToken implements Contract {
             require(unLockedHeight == -1, "挖矿锁定中, 解锁高度是 " + unLockedHeight);
             //删除挖矿信息
             miningInfo = mingUsers.get(detailInfo.getMiningAddress());
+            stateDigest.remove(miningDigestRecord(miningInfo.getMiningDetailInfoByNumber(depositNumber)));
             miningInfo.removeMiningDetailInfoByNumber(depositNumber);
+            totalMiningDetailCount -= 1;
             if (miningInfo.getMiningDetailInfos().size() == 0) {
                 mingUsers.remove(detailInfo.getMiningAddress());
+                totalMiningAddressCount -= 1;
             }
             depositInfo.removeDepositDetailInfoByNumber(depositNumber);
+            stateDigest.remove(depositDigestRecord(userString, detailInfo));
+            unlockIndexManager.remove(depositNumber);
             // 退押金
             deposit = detailInfo.getDepositAmount();
             depositInfo.setDepositTotalAmount(depositInfo.getDepositTotalAmount().subtract(deposit));
@@ -335,6 +409,10 @@ public class Pocm extends PocmToken implements Contract {
             //从队列中退出抵押金额
             this.quitDepositToMap(deposit, currentHeight, detailInfo.getDepositHeight());
         }
+        topDepositorManager.update(userString, depositInfo.getDepositTotalAmount());
+        this.resetConsensusAwardDebt(depositInfo);
+        // 发放已结算的共识奖励，共识奖励不参与委托，不受押金锁定影响
+        this.transferConsensusAward(user, depositInfo);
         boolean isEnoughBalance = totalDepositManager.subtract(deposit);
 
         if (depositInfo.getDepositDetailInfos().size() == 0) {
@@ -350,6 +428,7 @@ public class Pocm extends PocmToken implements Contract {
             return;
         }
         user.transfer(deposit);
+        this.autoRefundUnLockDeposit();
     }
 
     /**
@@ -361,6 +440,37 @@ public class Pocm extends PocmToken implements Contract {
         consensusManager.refundAllUnLockDeposit();
     }
 
+    /**
+     * 共识保证金解锁后，分批退还申请过退出的用户的押金，每次最多退还maxCount个用户，任何账户均可调用
+     *
+     * @param maxCount 本次最多退还的用户数量
+     */
+    public void refundUnLockDepositBatch(@Required int maxCount) {
+        require(consensusManager != null, "未开启共识功能");
+        require(maxCount > 0, "退还数量应该大于0");
+        require(consensusManager.isUnLockedAgentDeposit(), "押金锁定中");
+        require(consensusManager.getTakeBackUnLockDepositCount() > 0, "无退还信息");
+        int count = consensusManager.refundUnLockDepositBatch(maxCount);
+        require(count > 0, "合约余额不足，暂时无法退还押金");
+    }
+
+    /**
+     * 等待退还解锁押金的用户数量
+     */
+    @View
+    public int takeBackUnLockDepositCount() {
+        require(consensusManager != null, "未开启共识功能");
+        return consensusManager.getTakeBackUnLockDepositCount();
+    }
+
+    /**
+     * 领取之前因合约余额不足未发放的共识奖励 - 投资用户操作
+     */
+    public void takeBackConsensusAward() {
+        require(consensusManager != null, "未开启共识功能");
+        consensusManager.takeBackUnpaidDepositorAward();
+    }
+
     /**
      * 共识保证金解锁后，退还申请过退出的用户的押金 - 投资用户操作
      */
@@ -393,6 +503,94 @@ public class Pocm extends PocmToken implements Contract {
         consensusManager.depositManually();
     }
 
+    /**
+     * 合约拥有者设置批量委托模式：抵押金额先累积，每个奖励周期或累积金额达到阈值时统一委托
+     *
+     * @param open           是否开启批量委托
+     * @param thresholdNULS  触发委托的累积金额阈值(单位：NULS)，为0时只按奖励周期触发
+     */
+    public void setBatchDelegationByOwner(@Required boolean open, @Required BigDecimal thresholdNULS) {
+        onlyOwner();
+        require(consensusManager != null, "未开启共识功能");
+        consensusManager.setBatchDelegation(open, toNa(thresholdNULS), this.createHeight, this.awardingCycle);
+    }
+
+    /**
+     * 批量委托模式下，委托累积的抵押金额，任何账户均可触发
+     */
+    public void delegatePendingDeposits() {
+        require(consensusManager != null, "未开启共识功能");
+        require(consensusManager.isBatchDelegation(), "未开启批量委托");
+        require(consensusManager.isUnLockedConsensus(), "共识功能锁定中");
+        consensusManager.checkCurrentReset();
+        require(consensusManager.delegatePendingIfDue(), "未到委托周期或累积金额不足");
+    }
+
+    /**
+     * 合约拥有者设置是否将未领取的挖矿奖励计入Token余额
+     * 开启后balanceOf包含未领取的挖矿奖励，转出Token时自动领取，用户无需单独发送领取交易
+     */
+    public void setLazyMiningBalanceByOwner(@Required boolean open) {
+        onlyOwner();
+        lazyMiningBalance = open;
+    }
+
+    /**
+     * 合约拥有者设置共识奖励分配给抵押者的比例，抵押者按抵押金额平分，领取挖矿奖励或退出抵押时一并领取
+     *
+     * @param percent 分配给抵押者的比例(0-100)
+     */
+    public void setDepositorConsensusAwardPercentByOwner(@Required int percent) {
+        onlyOwner();
+        require(consensusManager != null, "未开启共识功能");
+        consensusManager.setDepositorAwardPercent(percent);
+    }
+
+    /**
+     * 合约拥有者合并小额委托：退出最小的最多maxOps笔委托，合并为一笔重新委托
+     *
+     * @param maxOps 最多退出的委托笔数(2-20)
+     */
+    public void compactDelegationsByOwner(@Required int maxOps) {
+        onlyOwner();
+        require(consensusManager != null, "未开启共识功能");
+        consensusManager.compactDelegations(maxOps);
+    }
+
+    /**
+     * 合约拥有者分批清除解锁索引中已退出的抵押，清除进度保存在合约中，多次调用直到清除完成
+     *
+     * @param maxCount 本次最多处理的索引项数量
+     */
+    public void compactUnlockIndexByOwner(@Required int maxCount) {
+        onlyOwner();
+        require(maxCount > 0 && maxCount <= MAX_UNLOCK_COMPACT_COUNT, "处理数量应该在1到" + MAX_UNLOCK_COMPACT_COUNT + "之间");
+        require(unlockIndexManager.getStaleCount() > 0, "解锁索引中没有已退出的抵押");
+        unlockIndexManager.compact(maxCount);
+    }
+
+    /**
+     * 合约拥有者添加外部共识节点，自己的节点委托达到上限(50万NULS)后，超出部分委托到外部节点
+     *
+     * @param agentHash 外部节点hash
+     */
+    public void addConsensusAgentByOwner(@Required String agentHash) {
+        onlyOwner();
+        require(consensusManager != null, "未开启共识功能");
+        consensusManager.addExternalAgent(agentHash.trim());
+    }
+
+    /**
+     * 合约拥有者移除外部共识节点，节点仍有委托时不能移除(已注销的节点除外)
+     *
+     * @param agentHash 外部节点hash
+     */
+    public void removeConsensusAgentByOwner(@Required String agentHash) {
+        onlyOwner();
+        require(consensusManager != null, "未开启共识功能");
+        consensusManager.removeExternalAgent(agentHash.trim());
+    }
+
     /**
      * 合约拥有者注销节点
      */
@@ -410,7 +608,11 @@ public class Pocm extends PocmToken implements Contract {
         require(miningInfo != null, "没有为自己抵押挖矿的挖矿信息");
         DepositInfo depositInfo = getDepositInfo(user.toString());
         this.receive(depositInfo);
+        this.settleConsensusAward(depositInfo);
+        this.resetConsensusAwardDebt(depositInfo);
+        this.transferConsensusAward(user, depositInfo);
         emit(new MiningInfoEvent(miningInfo));
+        this.autoRefundUnLockDeposit();
     }
 
     /**
@@ -433,6 +635,21 @@ public class Pocm extends PocmToken implements Contract {
             }
         }
         emit(new MiningInfoEvent(info));
+        this.autoRefundUnLockDeposit();
+    }
+
+    /**
+     * 抵押者领取自己的共识奖励，不要求为自己抵押挖矿，只为他人抵押的用户也可以领取
+     */
+    public void receiveConsensusAward() {
+        require(consensusManager != null, "未开启共识功能");
+        Address user = Msg.sender();
+        DepositInfo depositInfo = getDepositInfo(user.toString());
+        this.settleConsensusAward(depositInfo);
+        this.resetConsensusAwardDebt(depositInfo);
+        require(depositInfo.getPendingConsensusAward().compareTo(BigInteger.ZERO) > 0, "没有可领取的共识奖励");
+        this.transferConsensusAward(user, depositInfo);
+        this.autoRefundUnLockDeposit();
     }
 
     /**
@@ -463,6 +680,163 @@ public class Pocm extends PocmToken implements Contract {
         return getDepositInfo(address.toString());
     }
 
+    /**
+     * 查找用户下一笔抵押解锁的高度，全部已解锁时返回-1
+     */
+    @View
+    public long nextUnlockHeight(@Required Address address) {
+        DepositInfo depositInfo = getDepositInfo(address.toString());
+        long currentHeight = Block.number();
+        long minUnLockedHeight = depositInfo.getMinDepositHeight() + minimumLocked + 1;
+        if (minUnLockedHeight > currentHeight) {
+            return minUnLockedHeight;
+        }
+        if (checkAllDepositLocked(depositInfo) == -1) {
+            return -1;
+        }
+        // 部分已解锁，部分锁定中，查找锁定中最早解锁的高度
+        long result = -1;
+        long unLockedHeight;
+        for (DepositDetailInfo detailInfo : depositInfo.getDepositDetailInfos().values()) {
+            unLockedHeight = checkDepositLocked(detailInfo);
+            if (unLockedHeight != -1 && (result == -1 || unLockedHeight < result)) {
+                result = unLockedHeight;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 查找用户全部抵押解锁的高度，全部已解锁时返回-1
+     */
+    @View
+    public long fullUnlockHeight(@Required Address address) {
+        return checkAllDepositLocked(getDepositInfo(address.toString()));
+    }
+
+    /**
+     * 查找解锁高度在[fromHeight, toHeight]之间的抵押，按解锁高度升序，最多返回limit笔，最多检查1000个索引项
+     * 解锁高度 = 抵押高度 + 最短锁定区块 + 1
+     * 未检查完区间时nextDepositNumber为最后检查的抵押编号，作为下次查询的afterDepositNumber继续查询，检查完为-1
+     *
+     * @param afterDepositNumber 只查找抵押编号大于此值的抵押，首次查询传0
+     */
+    @View
+    public String depositsUnlockingBetween(@Required long fromHeight, @Required long toHeight, @Required long afterDepositNumber, @Required int limit) {
+        require(fromHeight <= toHeight, "高度范围不合法");
+        require(limit > 0 && limit <= MAX_UNLOCK_QUERY_COUNT, "查询数量应该在1到" + MAX_UNLOCK_QUERY_COUNT + "之间");
+        List<Long> depositNumbers = new ArrayList<Long>();
+        long nextDepositNumber = unlockIndexManager.findBetween(fromHeight, toHeight, afterDepositNumber, limit, MAX_UNLOCK_SCAN_COUNT, depositNumbers);
+        final StringBuilder sb = new StringBuilder("{\"deposits\":[");
+        for (Long depositNumber : depositNumbers) {
+            String depositorAddress = unlockIndexManager.getDepositorAddress(depositNumber);
+            DepositDetailInfo detailInfo = depositUsers.get(depositorAddress).getDepositDetailInfos().get(depositNumber);
+            sb.append("{\"depositNumber\":").append(depositNumber);
+            sb.append(",\"depositorAddress\":")
+                    .append('\"').append(depositorAddress).append('\"');
+            sb.append(",\"depositAmount\":")
+                    .append('\"').append(toNuls(detailInfo.getDepositAmount()).toPlainString()).append('\"');
+            sb.append(",\"unlockHeight\":").append(detailInfo.getDepositHeight() + minimumLocked + 1);
+            sb.append("},");
+        }
+        if (depositNumbers.size() > 0) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+        sb.append("],\"nextDepositNumber\":").append(nextDepositNumber);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 抵押排行榜：按抵押总额从高到低返回前n名抵押者的地址和抵押总额，金额相同时按地址排序
+     *
+     * @param n 查询的名次数量
+     */
+    @View
+    public String topDepositors(@Required int n) {
+        require(n > 0 && n <= MAX_TOP_DEPOSITOR_COUNT, "查询数量应该在1到" + MAX_TOP_DEPOSITOR_COUNT + "之间");
+        return topDepositorManager.top(n);
+    }
+
+    /**
+     * 合约拥有者分批空投，从合约拥有者的Token余额中扣除，解决空投地址过多时部署交易超出Gas上限的问题
+     *
+     * @param receiverAddress 接收空投的地址，单次最多100个
+     * @param receiverAmount  空投数量(不含小数位)，与地址一一对应
+     */
+    public void airdropByOwner(@Required String[] receiverAddress, @Required long[] receiverAmount) {
+        onlyOwner();
+        require(!airdropCompleted, "空投已完成");
+        require(receiverAddress.length == receiverAmount.length, "接收Token的地址个数与设置的数量个数不一致");
+        require(receiverAddress.length > 0 && receiverAddress.length <= MAX_AIRDROP_BATCH_COUNT, "单次空投地址个数应该在1到" + MAX_AIRDROP_BATCH_COUNT + "之间");
+        require(checkAmount(receiverAmount), "接收数量的数组中有非法输入");
+        Address[] receiverAddr = convertStringToAddres(receiverAddress);
+        BigInteger unit = BigInteger.TEN.pow(decimals());
+        BigInteger[] values = new BigInteger[receiverAmount.length];
+        BigInteger total = BigInteger.ZERO;
+        for (int i = 0; i < receiverAmount.length; i++) {
+            values[i] = BigInteger.valueOf(receiverAmount[i]).multiply(unit);
+            total = total.add(values[i]);
+        }
+        Address sender = Msg.sender();
+        subtractBalance(sender, total);
+        for (int i = 0; i < receiverAddr.length; i++) {
+            addBalance(receiverAddr[i], values[i]);
+            AirdropperInfo info = new AirdropperInfo();
+            info.setReceiverAddress(receiverAddress[i]);
+            info.setAirdropperAmount(values[i]);
+            ariDropperInfos.add(info);
+        }
+        if (sender.equals(contractCreator)) {
+            if (ownerAirdropperIndex != -1) {
+                AirdropperInfo ownerInfo = ariDropperInfos.get(ownerAirdropperIndex);
+                ownerInfo.setAirdropperAmount(ownerInfo.getAirdropperAmount().subtract(total));
+            }
+        } else {
+            // 当前拥有者不是合约创建者，扣减记录在拥有者自己的记录中，不影响创建者的份额
+            String senderAddress = sender.toString();
+            Integer debitIndex = ownerDebitAirdropperIndex.get(senderAddress);
+            if (debitIndex == null) {
+                AirdropperInfo debitInfo = new AirdropperInfo();
+                debitInfo.setReceiverAddress(senderAddress);
+                debitInfo.setAirdropperAmount(total.negate());
+                ownerDebitAirdropperIndex.put(senderAddress, ariDropperInfos.size());
+                ariDropperInfos.add(debitInfo);
+            } else {
+                AirdropperInfo debitInfo = ariDropperInfos.get(debitIndex);
+                debitInfo.setAirdropperAmount(debitInfo.getAirdropperAmount().subtract(total));
+            }
+        }
+        stagedAirdropCount += receiverAddr.length;
+        stagedAirdropAmount = stagedAirdropAmount.add(total);
+        emit(new BatchTransferEvent(sender, receiverAddr, values, total));
+    }
+
+    /**
+     * 合约拥有者标记分批空投完成，完成后不能再空投
+     */
+    public void finishAirdropByOwner() {
+        onlyOwner();
+        require(!airdropCompleted, "空投已完成");
+        airdropCompleted = true;
+    }
+
+    /**
+     * 分批空投状态
+     */
+    @View
+    public String airdropStatus() {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"completed\":")
+                .append(airdropCompleted);
+        sb.append(",\"stagedAirdropCount\":")
+                .append(stagedAirdropCount);
+        sb.append(",\"stagedAirdropAmount\":")
+                .append('\"').append(stagedAirdropAmount.toString()).append('\"');
+        sb.append('}');
+        return sb.toString();
+    }
+
     /**
      * 获取空投信息
      *
@@ -495,6 +869,287 @@ public class Pocm extends PocmToken implements Contract {
 
     }
 
+    /**
+     * 奖励周期的历史单价和抵押总量，从fromCycle到toCycle每隔step个奖励周期取一个数据点
+     * 每个数据点通过索引表或二分查找定位，耗时只与返回的数据点数有关
+     *
+     * @param fromCycle 起始奖励周期
+     * @param toCycle   结束奖励周期
+     * @param step      取样间隔
+     */
+    @View
+    public String priceHistory(@Required int fromCycle, @Required int toCycle, @Required int step) {
+        require(fromCycle >= 0 && fromCycle <= toCycle, "奖励周期范围不合法");
+        require(step > 0, "取样间隔应该大于0");
+        require((toCycle - fromCycle) / step < MAX_HISTORY_POINTS, "数据点数不得超过" + MAX_HISTORY_POINTS);
+        final StringBuilder sb = new StringBuilder("[");
+        for (int cycle = fromCycle; cycle <= toCycle; cycle += step) {
+            RewardCycleInfo cycleInfo = this.findRewardCycleInfo(cycle);
+            if (cycleInfo == null) {
+                break;
+            }
+            BigInteger depositAmount = cycleInfo.getDepositAmount();
+            sb.append("{\"cycle\":").append(cycle);
+            sb.append(",\"depositAmount\":")
+                    .append('\"').append(toNuls(depositAmount).toPlainString()).append('\"');
+            sb.append(",\"price\":").append('\"');
+            if (depositAmount.compareTo(BigInteger.ZERO) == 0) {
+                sb.append("Unknown");
+            } else {
+                sb.append(cycleInfo.getCurrentPrice().divide(toNuls(depositAmount), decimals(), BigDecimal.ROUND_DOWN).toPlainString());
+            }
+            sb.append('\"').append("},");
+            if (cycle > Integer.MAX_VALUE - step) {
+                break;
+            }
+        }
+        if (sb.length() > 1) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    /**
+     * 预估抵押amountNa个na挖矿cycles个奖励周期可获得的Token数量
+     * 按最新的抵押总量加上本次抵押金额计算，抵押后第2个奖励周期开始挖矿，
+     * 按奖励减半分段求和，计算量只与减半次数有关，与奖励周期数无关
+     *
+     * @param amountNa 抵押金额(单位：na)
+     * @param cycles   挖矿的奖励周期数
+     */
+    @View
+    public String estimateReward(@Required BigInteger amountNa, @Required int cycles) {
+        require(amountNa.compareTo(BigInteger.ZERO) > 0, "抵押金额应该大于0");
+        require(cycles > 0, "奖励周期数应该大于0");
+        BigInteger totalAmount = amountNa;
+        int size = totalDepositList.size();
+        if (size > 0) {
+            totalAmount = totalAmount.add(totalDepositList.get(size - 1).getDepositAmount());
+        }
+        long startCycle = this.calcRewardCycle(Block.number()) + 2;
+        BigDecimal sumPrice = this.projectPriceBetweenCycle(startCycle, startCycle + cycles - 1, toNuls(totalAmount));
+        BigInteger reward = toNuls(amountNa).multiply(sumPrice).scaleByPowerOfTen(decimals()).toBigInteger();
+        return new BigDecimal(reward).movePointLeft(decimals()).toPlainString() + " " + name();
+    }
+
+    /**
+     * 抵押总量不变的情况下，预估[startCycle, endCycle]之间每个NULS的奖励价格之和
+     * 按奖励减半分段求和，计算量只与减半次数有关
+     *
+     * @param startCycle      起始奖励周期
+     * @param endCycle        结束奖励周期
+     * @param totalAmountNULS 抵押总量(单位：NULS)
+     */
+    private BigDecimal projectPriceBetweenCycle(long startCycle, long endCycle, BigDecimal totalAmountNULS) {
+        BigDecimal sumPrice = BigDecimal.ZERO;
+        if (totalAmountNULS.compareTo(BigDecimal.ZERO) <= 0) {
+            return sumPrice;
+        }
+        long cycle = startCycle;
+        BigDecimal price = this.currentPrice;
+        long halvingHeight = this.nextRewardHalvingHeight;
+        while (cycle <= endCycle && price.compareTo(BigDecimal.ZERO) > 0) {
+            long segmentEnd = endCycle;
+            if (this.rewardHalvingCycle > 0) {
+                // 与putDepositToMap相同，奖励周期的起始高度达到减半高度时单价减半
+                while (halvingHeight <= cycle * this.awardingCycle + this.createHeight && price.compareTo(BigDecimal.ZERO) > 0) {
+                    price = price.divide(this.HLAVING, decimals(), BigDecimal.ROUND_DOWN);
+                    halvingHeight += this.rewardHalvingCycle;
+                }
+                // 下一次减半所在的奖励周期之前，单价不变
+                long nextHalvingCycle = (halvingHeight - this.createHeight + this.awardingCycle - 1) / this.awardingCycle;
+                segmentEnd = Math.min(endCycle, nextHalvingCycle - 1);
+            }
+            BigDecimal cyclePrice = price.divide(totalAmountNULS, decimals(), BigDecimal.ROUND_DOWN);
+            sumPrice = sumPrice.add(cyclePrice.multiply(BigDecimal.valueOf(segmentEnd - cycle + 1)));
+            cycle = segmentEnd + 1;
+        }
+        return sumPrice;
+    }
+
+    /**
+     * 预先模拟退出抵押：是否允许退出、是否可以立即退还押金、需要退出的共识委托笔数、将发放的挖矿奖励
+     * 不修改任何状态，挖矿奖励与当前区块退出时发放的数量相同；抵押仍在锁定中时不允许退出，不再模拟退还押金
+     *
+     * @param address 抵押者地址
+     * @param number  抵押编号，为0时模拟退出全部抵押
+     */
+    @View
+    public String simulateQuit(@Required Address address, @Required String number) {
+        long depositNumber = 0;
+        if (number.trim().length() > 0) {
+            require(canConvertNumeric(number.trim(), String.valueOf(Long.MAX_VALUE)), "抵押编号输入不合法，应该输入数字字符");
+            depositNumber = Long.valueOf(number.trim());
+        }
+        DepositInfo depositInfo = getDepositInfo(address.toString());
+        BigInteger deposit;
+        long unLockedHeight;
+        if (depositNumber == 0) {
+            deposit = depositInfo.getDepositTotalAmount();
+            unLockedHeight = checkAllDepositLocked(depositInfo);
+        } else {
+            DepositDetailInfo detailInfo = depositInfo.getDepositDetailInfoByNumber(depositNumber);
+            deposit = detailInfo.getDepositAmount();
+            unLockedHeight = checkDepositLocked(detailInfo);
+        }
+        // 锁定中quit会失败，不模拟退还押金
+        boolean canQuit = unLockedHeight == -1;
+        int withdrawCount = canQuit ? totalDepositManager.simulateSubtract(deposit) : 0;
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"depositAmount\":")
+                .append('\"').append(toNuls(deposit).toPlainString()).append('\"');
+        sb.append(",\"unLockedHeight\":")
+                .append(unLockedHeight);
+        sb.append(",\"canQuit\":")
+                .append(canQuit);
+        sb.append(",\"immediateRefund\":")
+                .append(canQuit && withdrawCount != -1);
+        sb.append(",\"consensusWithdrawCount\":")
+                .append(withdrawCount == -1 ? 0 : withdrawCount);
+        sb.append(",\"pendingReward\":")
+                .append('\"').append(this.estimatePendingMining(depositInfo).toString()).append('\"');
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 计算退出时发放的挖矿奖励，与calcMining结果相同，但不修改状态
+     */
+    private BigInteger estimatePendingMining(DepositInfo depositInfo) {
+        BigInteger mining = BigInteger.ZERO;
+        long currentHeight = Block.number();
+        int currentRewardCycle = this.calcRewardCycle(currentHeight);
+        List<RewardCycleInfo> pendingInfos = this.projectCurrentCycleInfos(currentHeight);
+        Map<Integer, BigDecimal> priceCache = new HashMap<Integer, BigDecimal>();
+        for (DepositDetailInfo detailInfo : depositInfo.getDepositDetailInfos().values()) {
+            MiningInfo miningInfo = getMiningInfo(detailInfo.getMiningAddress());
+            MiningDetailInfo mingDetailInfo = miningInfo.getMiningDetailInfoByNumber(detailInfo.getDepositNumber());
+            mining = mining.add(this.calcPendingDetailMining(detailInfo.getDepositAmount(), mingDetailInfo, currentRewardCycle, pendingInfos, priceCache));
+        }
+        return mining;
+    }
+
+    /**
+     * 计算挖矿地址尚未领取的挖矿奖励，挖矿地址可能接收多个抵押者的奖励，不修改状态
+     */
+    private BigInteger calcPendingMiningOf(MiningInfo miningInfo, int currentRewardCycle, List<RewardCycleInfo> pendingInfos, Map<Integer, BigDecimal> priceCache) {
+        BigInteger mining = BigInteger.ZERO;
+        for (MiningDetailInfo mingDetailInfo : miningInfo.getMiningDetailInfos().values()) {
+            DepositInfo depositInfo = getDepositInfo(mingDetailInfo.getDepositorAddress());
+            DepositDetailInfo detailInfo = depositInfo.getDepositDetailInfoByNumber(mingDetailInfo.getDepositNumber());
+            mining = mining.add(this.calcPendingDetailMining(detailInfo.getDepositAmount(), mingDetailInfo, currentRewardCycle, pendingInfos, priceCache));
+        }
+        return mining;
+    }
+
+    /**
+     * 按calcMining的算法计算一笔抵押尚未领取的挖矿奖励，相同起始奖励周期的价格之和只计算一次
+     */
+    private BigInteger calcPendingDetailMining(BigInteger depositAmount, MiningDetailInfo mingDetailInfo, int currentRewardCycle,
+                                              List<RewardCycleInfo> pendingInfos, Map<Integer, BigDecimal> priceCache) {
+        int nextStartMiningCycle = mingDetailInfo.getNextStartMiningCycle();
+        if (nextStartMiningCycle > currentRewardCycle) {
+            return BigInteger.ZERO;
+        }
+        BigDecimal sumPrice = priceCache.get(nextStartMiningCycle);
+        if (sumPrice == null) {
+            sumPrice = this.calcPriceBetweenCycle(nextStartMiningCycle, pendingInfos);
+            priceCache.put(nextStartMiningCycle, sumPrice);
+        }
+        return toNuls(depositAmount).multiply(sumPrice).scaleByPowerOfTen(decimals()).toBigInteger();
+    }
+
+    /**
+     * 开启后，挖矿地址未领取的挖矿奖励计入balanceOf，与领取时发放的数量完全相同
+     */
+    @Override
+    protected BigInteger pendingBalanceOf(Address owner) {
+        if (!lazyMiningBalance) {
+            return BigInteger.ZERO;
+        }
+        MiningInfo miningInfo = mingUsers.get(owner.toString());
+        if (miningInfo == null) {
+            return BigInteger.ZERO;
+        }
+        long currentHeight = Block.number();
+        return this.calcPendingMiningOf(miningInfo, this.calcRewardCycle(currentHeight), this.projectCurrentCycleInfos(currentHeight),
+                new HashMap<Integer, BigDecimal>());
+    }
+
+    /**
+     * 开启后，所有挖矿地址未领取的挖矿奖励计入totalSupply，与各地址balanceOf中的未领取部分之和相同
+     * 需要遍历所有挖矿明细，相同起始奖励周期的价格之和只计算一次
+     */
+    @Override
+    protected BigInteger pendingTotalSupply() {
+        if (!lazyMiningBalance) {
+            return BigInteger.ZERO;
+        }
+        long currentHeight = Block.number();
+        int currentRewardCycle = this.calcRewardCycle(currentHeight);
+        List<RewardCycleInfo> pendingInfos = this.projectCurrentCycleInfos(currentHeight);
+        Map<Integer, BigDecimal> priceCache = new HashMap<Integer, BigDecimal>();
+        BigInteger pending = BigInteger.ZERO;
+        for (MiningInfo miningInfo : mingUsers.values()) {
+            pending = pending.add(this.calcPendingMiningOf(miningInfo, currentRewardCycle, pendingInfos, priceCache));
+        }
+        return pending;
+    }
+
+    /**
+     * 开启后，转出Token前领取该地址作为挖矿地址的所有抵押的奖励，发放的数量即balanceOf中的未领取部分
+     */
+    @Override
+    protected void settlePendingBalance(Address owner) {
+        if (!lazyMiningBalance) {
+            return;
+        }
+        MiningInfo miningInfo = mingUsers.get(owner.toString());
+        if (miningInfo == null) {
+            return;
+        }
+        Set<String> depositors = new LinkedHashSet<String>();
+        for (MiningDetailInfo mingDetailInfo : miningInfo.getMiningDetailInfos().values()) {
+            depositors.add(mingDetailInfo.getDepositorAddress());
+        }
+        for (String depositor : depositors) {
+            this.receive(getDepositInfo(depositor));
+        }
+    }
+
+    /**
+     * 查找计算指定奖励周期奖励时使用的统计信息，即奖励周期不小于cycle的第一条统计信息
+     * 超过最后一条统计信息的奖励周期沿用最后一条统计信息
+     *
+     * @param cycle 奖励周期
+     * @return 没有任何统计信息时返回null
+     */
+    private RewardCycleInfo findRewardCycleInfo(int cycle) {
+        Integer index = totalDepositIndex.get(cycle);
+        if (index != null) {
+            return totalDepositList.get(index);
+        }
+        int size = totalDepositList.size();
+        if (size == 0) {
+            return null;
+        }
+        int low = 0;
+        int high = size - 1;
+        if (totalDepositList.get(high).getRewardingCylce() < cycle) {
+            return totalDepositList.get(high);
+        }
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (totalDepositList.get(mid).getRewardingCylce() < cycle) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return totalDepositList.get(low);
+    }
+
     /**
      * 单价的精度不能超过定义的精度
      *
@@ -537,20 +1192,64 @@ public class Pocm extends PocmToken implements Contract {
     }
 
     /**
-     * 检查抵押是否在锁定中
+     * 按共识奖励累加值结算抵押者的共识奖励，需在抵押金额变动前调用
+     */
+    private void settleConsensusAward(DepositInfo depositInfo) {
+        if (consensusManager == null) {
+            return;
+        }
+        BigInteger accrued = depositInfo.getDepositTotalAmount().multiply(consensusManager.getAccAwardPerNa())
+                .divide(ConsensusAwardInfo.ACC_PRECISION).subtract(depositInfo.getConsensusAwardDebt());
+        if (accrued.compareTo(BigInteger.ZERO) > 0) {
+            depositInfo.setPendingConsensusAward(depositInfo.getPendingConsensusAward().add(accrued));
+        }
+    }
+
+    /**
+     * 抵押金额变动后，以当前累加值重置已结算的部分
+     */
+    private void resetConsensusAwardDebt(DepositInfo depositInfo) {
+        if (consensusManager == null) {
+            return;
+        }
+        depositInfo.setConsensusAwardDebt(depositInfo.getDepositTotalAmount().multiply(consensusManager.getAccAwardPerNa())
+                .divide(ConsensusAwardInfo.ACC_PRECISION));
+    }
+
+    /**
+     * 发放抵押者已结算的共识奖励
+     */
+    private void transferConsensusAward(Address user, DepositInfo depositInfo) {
+        BigInteger pending = depositInfo.getPendingConsensusAward();
+        if (consensusManager == null || pending.compareTo(BigInteger.ZERO) <= 0) {
+            return;
+        }
+        depositInfo.setPendingConsensusAward(BigInteger.ZERO);
+        consensusManager.transferDepositorAward(user, pending);
+    }
+
+    /**
+     * 共识保证金解锁后，按申请退出的先后顺序顺带退还少量用户的押金
+     */
+    private void autoRefundUnLockDeposit() {
+        if (consensusManager != null) {
+            consensusManager.autoRefundUnLockDeposit(AUTO_REFUND_COUNT);
+        }
+    }
+
+    /**
+     * 检查抵押是否在锁定中，以最晚的抵押高度判断，返回全部解锁的高度
      *
      * @param depositInfo
      * @return
      */
     private long checkAllDepositLocked(DepositInfo depositInfo) {
-        long result;
-        Map<Long, DepositDetailInfo> infos = depositInfo.getDepositDetailInfos();
-        for (Long key : infos.keySet()) {
-            result = checkDepositLocked(infos.get(key));
-            if (result != -1) {
-                return result;
-            }
+        long unLockedHeight = depositInfo.getMaxDepositHeight() + minimumLocked + 1;
+        if (unLockedHeight > Block.number()) {
+            // 锁定中
+            return unLockedHeight;
         }
+        //已解锁
         return -1;
     }
 
@@ -591,6 +1290,7 @@ public class Pocm extends PocmToken implements Contract {
         }
 
         this.setTotalSupply(this.getTotalSupply().add(thisMining));
+        this.totalMinedAmount = this.totalMinedAmount.add(thisMining);
     }
 
 
@@ -607,6 +1307,7 @@ public class Pocm extends PocmToken implements Contract {
         int currentRewardCycle = this.calcRewardCycle(currentHeight);
         //将上一个奖励周期的总抵押数更新至当前奖励周期的总抵押数
         this.moveLastDepositToCurrentCycle(currentHeight);
+        this.accumulateEmittedReward(currentRewardCycle);
 
         Map<Long, DepositDetailInfo> detailInfos = depositInfo.getDepositDetailInfos();
         for (Long key : detailInfos.keySet()) {
@@ -619,6 +1320,7 @@ public class Pocm extends PocmToken implements Contract {
             if (nextStartMiningCycle > currentRewardCycle) {
                 continue;
             }
+            stateDigest.remove(miningDigestRecord(mingDetailInfo));
             BigDecimal sumPrice = this.calcPriceBetweenCycle(nextStartMiningCycle);
             BigDecimal depositAmountNULS = toNuls(detailInfo.getDepositAmount());
             miningTmp = miningTmp.add(depositAmountNULS.multiply(sumPrice).scaleByPowerOfTen(decimals()).toBigInteger());
@@ -626,6 +1328,7 @@ public class Pocm extends PocmToken implements Contract {
             mingDetailInfo.setMiningAmount(mingDetailInfo.getMiningAmount().add(miningTmp));
             mingDetailInfo.setMiningCount(mingDetailInfo.getMiningCount() + currentRewardCycle - nextStartMiningCycle + 1);
             mingDetailInfo.setNextStartMiningCycle(currentRewardCycle + 1);
+            stateDigest.add(miningDigestRecord(mingDetailInfo));
             miningInfo.setTotalMining(miningInfo.getTotalMining().add(miningTmp));
             miningInfo.setReceivedMining(miningInfo.getReceivedMining().add(miningTmp));
 
@@ -648,9 +1351,12 @@ public class Pocm extends PocmToken implements Contract {
         for (Long key : infos.keySet()) {
             DepositDetailInfo detailInfo = infos.get(key);
             MiningInfo miningInfo = mingUsers.get(detailInfo.getMiningAddress());
+            stateDigest.remove(miningDigestRecord(miningInfo.getMiningDetailInfoByNumber(detailInfo.getDepositNumber())));
             miningInfo.removeMiningDetailInfoByNumber(detailInfo.getDepositNumber());
+            totalMiningDetailCount -= 1;
             if (miningInfo.getMiningDetailInfos().size() == 0) {
                 mingUsers.remove(detailInfo.getMiningAddress());
+                totalMiningAddressCount -= 1;
             }
         }
     }
@@ -667,17 +1373,36 @@ public class Pocm extends PocmToken implements Contract {
         MiningDetailInfo mingDetailInfo = new MiningDetailInfo(miningAddress, depositorAddress, depositNumber);
         int currentRewardCycle = this.calcRewardCycle(currentHeight);
         mingDetailInfo.setNextStartMiningCycle(currentRewardCycle + 2);
+        stateDigest.add(miningDigestRecord(mingDetailInfo));
         MiningInfo mingInfo = mingUsers.get(miningAddress);
         //该Token地址为第一次挖矿
         if (mingInfo == null) {
             mingInfo = new MiningInfo();
             mingInfo.getMiningDetailInfos().put(depositNumber, mingDetailInfo);
             mingUsers.put(miningAddress, mingInfo);
+            totalMiningAddressCount += 1;
         } else {
             mingInfo.getMiningDetailInfos().put(depositNumber, mingDetailInfo);
         }
+        totalMiningDetailCount += 1;
+    }
+
+
+    /**
+     * 抵押记录的摘要格式: D|抵押者地址|抵押编号|抵押金额(na)|抵押高度|挖矿地址
+     */
+    private String depositDigestRecord(String depositorAddress, DepositDetailInfo detailInfo) {
+        return "D|" + depositorAddress + "|" + detailInfo.getDepositNumber() + "|" + detailInfo.getDepositAmount()
+                + "|" + detailInfo.getDepositHeight() + "|" + detailInfo.getMiningAddress();
     }
 
+    /**
+     * 挖矿记录的摘要格式: M|挖矿地址|抵押编号|挖矿金额|挖矿次数|下次挖矿的奖励周期
+     */
+    private String miningDigestRecord(MiningDetailInfo detailInfo) {
+        return "M|" + detailInfo.getReceiverMiningAddress() + "|" + detailInfo.getDepositNumber() + "|" + detailInfo.getMiningAmount()
+                + "|" + detailInfo.getMiningCount() + "|" + detailInfo.getNextStartMiningCycle();
+    }
 
     /**
      * 在加入抵押时将抵押金额加入队列中
@@ -736,67 +1461,123 @@ public class Pocm extends PocmToken implements Contract {
         //若当前高度的奖励周期在队列中，则直接退出此方法
         if (totalDepositIndex.containsKey(currentCycle)) {
             return;
-        } else {
-            //当前高度已经达到奖励减半高度,将所有的减半周期高度对于的奖励高度加入队列
-            if (this.rewardHalvingCycle > 0 && this.nextRewardHalvingHeight <= currentHeight) {
-                this.moveLastDepositToHalvingCycle(nextRewardHalvingHeight, currentHeight);
-            }
         }
+        this.commitCycleInfos(this.projectCurrentCycleInfos(currentHeight), currentHeight);
+    }
+
+    /**
+     * 抵押数额没有变动的情况下，将奖励减半周期所在高度的奖励周期抵押数加入队列
+     */
+    private void moveLastDepositToHalvingCycle(long currentHeight) {
+        List<RewardCycleInfo> infos = new ArrayList<RewardCycleInfo>();
+        this.projectHalvingCycleInfos(currentHeight, infos);
+        this.commitCycleInfos(infos, currentHeight);
+    }
 
+    /**
+     * 计算将当前高度的奖励周期加入队列时需要追加的统计信息，不修改状态
+     * moveLastDepositToCurrentCycle追加的就是这些统计信息，查询时用它们计算与领取时完全一致的挖矿奖励
+     *
+     * @param currentHeight
+     * @return 按追加顺序排列的统计信息，当前奖励周期已在队列中时为空
+     */
+    private List<RewardCycleInfo> projectCurrentCycleInfos(long currentHeight) {
+        List<RewardCycleInfo> infos = new ArrayList<RewardCycleInfo>();
+        int currentCycle = this.calcRewardCycle(currentHeight);
+        if (totalDepositIndex.containsKey(currentCycle)) {
+            return infos;
+        }
+        BigDecimal price = this.currentPrice;
+        //当前高度已经达到奖励减半高度,将所有的减半周期高度对于的奖励高度加入队列
+        if (this.rewardHalvingCycle > 0 && this.nextRewardHalvingHeight <= currentHeight) {
+            price = this.projectHalvingCycleInfos(currentHeight, infos);
+        }
         //此时再检查是否当前高度的奖励周期在队列中
-        if (!totalDepositIndex.containsKey(currentCycle)) {
+        if (!this.containsCycle(currentCycle, infos)) {
             RewardCycleInfo cycleInfo = new RewardCycleInfo();
-            RewardCycleInfo cycleInfoTmp;
-            if (totalDepositList.size() > 0) {
-                //取队列中最后一个奖励周期的信息
+            //取队列中最后一个奖励周期的信息
+            RewardCycleInfo cycleInfoTmp = null;
+            if (infos.size() > 0) {
+                cycleInfoTmp = infos.get(infos.size() - 1);
+            } else if (totalDepositList.size() > 0) {
                 cycleInfoTmp = totalDepositList.get(totalDepositList.size() - 1);
+            }
+            if (cycleInfoTmp != null) {
                 cycleInfo.setDepositAmount(cycleInfoTmp.getDepositAmount());
                 cycleInfo.setDifferCycleValue(currentCycle - cycleInfoTmp.getRewardingCylce());
-                cycleInfo.setCurrentPrice(this.currentPrice);
-                cycleInfo.setRewardingCylce(currentCycle);
             } else {
                 cycleInfo.setDepositAmount(BigInteger.ZERO);
                 cycleInfo.setDifferCycleValue(1);
-                cycleInfo.setCurrentPrice(this.currentPrice);
-                cycleInfo.setRewardingCylce(currentCycle);
             }
-            lastCalcCycle = currentCycle;
-            totalDepositList.add(cycleInfo);
-            totalDepositIndex.put(currentCycle, totalDepositList.size() - 1);
+            cycleInfo.setCurrentPrice(price);
+            cycleInfo.setRewardingCylce(currentCycle);
+            infos.add(cycleInfo);
         }
+        return infos;
     }
 
     /**
-     * 抵押数额没有变动的情况下，将奖励减半周期所在高度的奖励周期抵押数加入队列
+     * 计算从下一个奖励减半高度到currentHeight之间各减半高度所在奖励周期的统计信息，追加到infos，不修改状态
+     * 减半高度所在的奖励周期已在队列中时只减半单价，不再追加
+     *
+     * @return 减半后的单价
      */
-    private void moveLastDepositToHalvingCycle(long startRewardHalvingHeight, long currentHeight) {
-        int rewardingCycle = this.lastCalcCycle;
-        long height = startRewardHalvingHeight;
+    private BigDecimal projectHalvingCycleInfos(long currentHeight, List<RewardCycleInfo> infos) {
+        BigDecimal price = this.currentPrice;
+        RewardCycleInfo lastCycleInfo = null;
+        if (this.lastCalcCycle != 0) {
+            lastCycleInfo = totalDepositList.get(totalDepositIndex.get(this.lastCalcCycle));
+        }
+        long height = this.nextRewardHalvingHeight;
         while (height <= currentHeight) {
-            RewardCycleInfo cycleInfo = new RewardCycleInfo();
-            this.currentPrice = this.currentPrice.divide(this.HLAVING, decimals(), BigDecimal.ROUND_DOWN);
-            rewardingCycle = this.calcRewardCycle(height);
-            boolean isContainsKey = totalDepositIndex.containsKey(rewardingCycle);
-            if (isContainsKey) {
+            price = price.divide(this.HLAVING, decimals(), BigDecimal.ROUND_DOWN);
+            int rewardingCycle = this.calcRewardCycle(height);
+            height += this.rewardHalvingCycle;
+            if (this.containsCycle(rewardingCycle, infos)) {
                 continue;
             }
-            if (this.lastCalcCycle != 0) {
-                RewardCycleInfo cycleInfoTmp = totalDepositList.get(totalDepositIndex.get(this.lastCalcCycle));
-                cycleInfo.setDepositAmount(cycleInfoTmp.getDepositAmount());
-                cycleInfo.setDifferCycleValue(rewardingCycle - cycleInfoTmp.getRewardingCylce());
+            RewardCycleInfo cycleInfo = new RewardCycleInfo();
+            if (lastCycleInfo != null) {
+                cycleInfo.setDepositAmount(lastCycleInfo.getDepositAmount());
+                cycleInfo.setDifferCycleValue(rewardingCycle - lastCycleInfo.getRewardingCylce());
             } else {
                 //第一次进行抵押操作
                 cycleInfo.setDepositAmount(BigInteger.ZERO);
                 cycleInfo.setDifferCycleValue(1);
             }
             cycleInfo.setRewardingCylce(rewardingCycle);
-            cycleInfo.setCurrentPrice(this.currentPrice);
+            cycleInfo.setCurrentPrice(price);
+            infos.add(cycleInfo);
+            lastCycleInfo = cycleInfo;
+        }
+        return price;
+    }
+
+    /**
+     * 奖励周期是否已在队列中，或在尚未加入队列的统计信息中(按奖励周期递增，只需检查最后一条)
+     */
+    private boolean containsCycle(int cycle, List<RewardCycleInfo> infos) {
+        if (totalDepositIndex.containsKey(cycle)) {
+            return true;
+        }
+        return infos.size() > 0 && infos.get(infos.size() - 1).getRewardingCylce() == cycle;
+    }
+
+    /**
+     * 将projectCurrentCycleInfos/projectHalvingCycleInfos计算的统计信息加入队列，并更新单价和下一个奖励减半高度
+     */
+    private void commitCycleInfos(List<RewardCycleInfo> infos, long currentHeight) {
+        for (RewardCycleInfo cycleInfo : infos) {
             totalDepositList.add(cycleInfo);
-            totalDepositIndex.put(rewardingCycle, totalDepositList.size() - 1);
-            height += this.rewardHalvingCycle;
-            this.lastCalcCycle = rewardingCycle;
+            totalDepositIndex.put(cycleInfo.getRewardingCylce(), totalDepositList.size() - 1);
+            this.lastCalcCycle = cycleInfo.getRewardingCylce();
+        }
+        if (this.rewardHalvingCycle > 0) {
+            while (this.nextRewardHalvingHeight <= currentHeight) {
+                this.currentPrice = this.currentPrice.divide(this.HLAVING, decimals(), BigDecimal.ROUND_DOWN);
+                this.nextRewardHalvingHeight += this.rewardHalvingCycle;
+            }
         }
-        this.nextRewardHalvingHeight = height;
     }
 
     /**
@@ -825,7 +1606,7 @@ public class Pocm extends PocmToken implements Contract {
                 //当前高度已经达到奖励减半高度,将所有的减半周期高度对于的奖励高度加入队列
                 long nextHeight = currentHeight + this.awardingCycle;
                 if (this.rewardHalvingCycle > 0 && this.nextRewardHalvingHeight <= nextHeight) {
-                    this.moveLastDepositToHalvingCycle(nextRewardHalvingHeight, nextHeight);
+                    this.moveLastDepositToHalvingCycle(nextHeight);
                 }
 
                 RewardCycleInfo cycleInfo = new RewardCycleInfo();
@@ -852,11 +1633,26 @@ public class Pocm extends PocmToken implements Contract {
      * @return
      */
     private BigDecimal calcPriceBetweenCycle(int startCycle) {
+        return this.calcPriceBetweenCycle(startCycle, Collections.<RewardCycleInfo>emptyList());
+    }
+
+    /**
+     * 从指定的奖励周期开始计算奖励价格之和，不修改状态
+     * pendingInfos为尚未加入队列的统计信息(见projectCurrentCycleInfos)，接在队列之后一起计算，
+     * 领取奖励(加入队列后)和查询(不加入队列)得到的价格之和完全相同
+     *
+     * @param startCycle
+     * @param pendingInfos
+     * @return
+     */
+    private BigDecimal calcPriceBetweenCycle(int startCycle, List<RewardCycleInfo> pendingInfos) {
         BigDecimal sumPrice = BigDecimal.ZERO;
         BigDecimal sumPriceForRegin = BigDecimal.ZERO;
         int startIndex = totalDepositIndex.get(startCycle - 1) + 1;
-        for (int i = startIndex; i < totalDepositList.size(); i++) {
-            RewardCycleInfo cycleInfoTmp = totalDepositList.get(i);
+        int size = totalDepositList.size();
+        int total = size + pendingInfos.size();
+        for (int i = startIndex; i < total; i++) {
+            RewardCycleInfo cycleInfoTmp = i < size ? totalDepositList.get(i) : pendingInfos.get(i - size);
             String amount = toNuls(cycleInfoTmp.getDepositAmount()).toString();
             if (!"0".equals(amount)) {
                 BigDecimal bigAmount = new BigDecimal(amount);
@@ -867,6 +1663,51 @@ public class Pocm extends PocmToken implements Contract {
         return sumPriceForRegin;
     }
 
+    /**
+     * 累计奖励周期统计信息中不晚于当前奖励周期的产出，这些统计信息之后不会再变动
+     * 每条统计信息的产出为单价乘以相差的奖励周期数，抵押总数为0时没有产出
+     */
+    private void accumulateEmittedReward(int currentRewardCycle) {
+        int size = totalDepositList.size();
+        while (emittedRewardIndex < size) {
+            RewardCycleInfo cycleInfo = totalDepositList.get(emittedRewardIndex);
+            if (cycleInfo.getRewardingCylce() > currentRewardCycle) {
+                break;
+            }
+            emittedRewardAmount = emittedRewardAmount.add(calcCycleInfoEmission(cycleInfo));
+            emittedRewardIndex++;
+        }
+    }
+
+    private BigDecimal calcCycleInfoEmission(RewardCycleInfo cycleInfo) {
+        if (cycleInfo.getDepositAmount().compareTo(BigInteger.ZERO) <= 0) {
+            return BigDecimal.ZERO;
+        }
+        return cycleInfo.getCurrentPrice().multiply(BigDecimal.valueOf(cycleInfo.getDifferCycleValue()));
+    }
+
+    /**
+     * 截至当前奖励周期已产出但尚未领取的Token数量，不修改状态
+     * 产出 = 已累计的产出 + 尚未累计的统计信息的产出 + 领取时才会加入队列的统计信息的产出
+     */
+    private BigInteger calcUnclaimedAmount() {
+        long currentHeight = Block.number();
+        int currentRewardCycle = this.calcRewardCycle(currentHeight);
+        BigDecimal emitted = emittedRewardAmount;
+        List<RewardCycleInfo> pendingInfos = this.projectCurrentCycleInfos(currentHeight);
+        int size = totalDepositList.size();
+        int total = size + pendingInfos.size();
+        for (int i = emittedRewardIndex; i < total; i++) {
+            RewardCycleInfo cycleInfo = i < size ? totalDepositList.get(i) : pendingInfos.get(i - size);
+            if (cycleInfo.getRewardingCylce() > currentRewardCycle) {
+                break;
+            }
+            emitted = emitted.add(calcCycleInfoEmission(cycleInfo));
+        }
+        BigInteger unclaimed = emitted.scaleByPowerOfTen(decimals()).toBigInteger().subtract(totalMinedAmount);
+        return unclaimed.compareTo(BigInteger.ZERO) > 0 ? unclaimed : BigInteger.ZERO;
+    }
+
     /**
      * 计算当前高度所在的奖励周期
      *
@@ -921,6 +1762,41 @@ public class Pocm extends PocmToken implements Contract {
         return totalDepositAddressCount;
     }
 
+    /**
+     * 矿池统计信息，由各计数器直接返回，不遍历用户数据；尚未领取的数量只遍历上次结算后新增的奖励周期统计信息
+     */
+    @View
+    public String poolStats() {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"totalDeposit\":")
+                .append('\"').append(toNuls(totalDepositManager.getTotalDeposit()).toPlainString()).append('\"');
+        sb.append(",\"totalDepositAddressCount\":")
+                .append(totalDepositAddressCount);
+        sb.append(",\"totalMiningAddressCount\":")
+                .append(totalMiningAddressCount);
+        sb.append(",\"totalMiningDetailCount\":")
+                .append(totalMiningDetailCount);
+        sb.append(",\"totalMinedAmount\":")
+                .append('\"').append(totalMinedAmount.toString()).append('\"');
+        sb.append(",\"totalUnclaimedAmount\":")
+                .append('\"').append(this.calcUnclaimedAmount().toString()).append('\"');
+        sb.append(",\"totalSupply\":")
+                .append('\"').append(this.getTotalSupply().toString()).append('\"');
+        sb.append(",\"currentRewardCycle\":")
+                .append(this.calcRewardCycle(Block.number()));
+        sb.append('}');
+        return sb.toString();
+    }
+
+    /**
+     * 抵押记录与挖矿记录的状态摘要，链下索引器按相同规则计算后比对，不一致时再重新同步
+     * 摘要为所有有效记录sha3值之和(mod 2^256)，记录格式见depositDigestRecord、miningDigestRecord
+     */
+    @View
+    public String stateDigest() {
+        return stateDigest.toString();
+    }
+
     @View
     public String totalDeposit() {
         return toNuls(totalDepositManager.getTotalDeposit()).toPlainString();
@@ -972,6 +1848,43 @@ public class Pocm extends PocmToken implements Contract {
         return toNuls(consensusManager.getAvailableAmount()).toPlainString();
     }
 
+    /**
+     * 查询共识奖励汇总：各奖励地址累计金额及最近一个区块的奖励合计
+     */
+    @View
+    public String consensusAwardSummary() {
+        require(consensusManager != null, "未开启共识功能");
+        return consensusManager.getAwardSummary();
+    }
+
+    /**
+     * 查询抵押者可领取的共识奖励，包括之前因合约余额不足未发放的部分
+     */
+    @View
+    public String depositorConsensusAward(@Required Address address) {
+        require(consensusManager != null, "未开启共识功能");
+        BigInteger pending = consensusManager.getUnpaidDepositorAward(address.toString());
+        DepositInfo depositInfo = depositUsers.get(address.toString());
+        if (depositInfo != null) {
+            pending = pending.add(depositInfo.getPendingConsensusAward());
+            BigInteger accrued = depositInfo.getDepositTotalAmount().multiply(consensusManager.getAccAwardPerNa())
+                    .divide(ConsensusAwardInfo.ACC_PRECISION).subtract(depositInfo.getConsensusAwardDebt());
+            if (accrued.compareTo(BigInteger.ZERO) > 0) {
+                pending = pending.add(accrued);
+            }
+        }
+        return toNuls(pending).toPlainString();
+    }
+
+    /**
+     * 查询保留在合约中不委托的流动性储备金额
+     */
+    @View
+    public String liquidityReserve() {
+        require(consensusManager != null, "未开启共识功能");
+        return toNuls(consensusManager.getLiquidityReserve()).toPlainString();
+    }
+
     /**
      * 查询合约当前所有信息(用于测试)
      */
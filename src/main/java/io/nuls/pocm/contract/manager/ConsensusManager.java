@@ -27,13 +27,18 @@ import io.nuls.contract.sdk.Address;
 import io.nuls.contract.sdk.Block;
 import io.nuls.contract.sdk.Msg;
 import io.nuls.contract.sdk.Utils;
+import io.nuls.pocm.contract.model.ConsensusAgentInfo;
 import io.nuls.pocm.contract.model.ConsensusAwardInfo;
 import io.nuls.pocm.contract.model.ConsensusDepositInfo;
+import io.nuls.pocm.contract.model.ConsensusDepositList;
 import io.nuls.pocm.contract.model.ConsensusTakeBackUnLockDepositInfo;
 
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -53,10 +58,24 @@ public class ConsensusManager {
     private final BigInteger minTransferForCreateDeposit = BigInteger.valueOf(2000100000000L);
     private final BigInteger minJoinDeposit = BigInteger.valueOf(200000000000L);
     private final BigInteger maxTotalDeposit = BigInteger.valueOf(50000000000000L);
+    private final int maxExternalAgentCount = 10;
+    // 单次合并委托最多退出的委托笔数
+    private final int maxCompactOps = 20;
+    // 退出金额的统计周期(约1天)
+    private final long exitStatPeriod = 8640L;
+    // 退出金额移动平均的平滑系数，每个统计周期的权重为1/8
+    private final int exitAverageWeight = 8;
+    // 流动性储备为每周期平均退出金额的2倍
+    private final int reserveMultiple = 2;
+    // 流动性储备不超过总抵押金额的20%
+    private final int maxReservePercent = 20;
+    // cs_getContractAgentInfo返回的节点信息中，节点总委托金额(含所有委托者)及注销高度的序号
+    private final int agentInfoTotalDepositIndex = 4;
+    private final int agentInfoDelHeightIndex = 7;
 
     private String lastAgentHash;
     private BigInteger agentDeposit = BigInteger.ZERO;
-    private LinkedList<ConsensusDepositInfo> depositList = new LinkedList<ConsensusDepositInfo>();
+    private ConsensusDepositList depositList = new ConsensusDepositList();
     private String packingAddress;
     private BigInteger availableAmount = BigInteger.ZERO;
     private BigInteger depositLockedAmount = BigInteger.ZERO;
@@ -70,8 +89,8 @@ public class ConsensusManager {
     private long unlockAgentDepositTime = -1L;
     // 初始化共识管理器
     private boolean isReset = false;
-    // 等待退还解锁的押金用户集合
-    private Map<String, ConsensusTakeBackUnLockDepositInfo> takeBackUnLockDepositMap = new HashMap<String, ConsensusTakeBackUnLockDepositInfo>();
+    // 等待退还解锁的押金用户集合，按申请退出的先后顺序排列
+    private Map<String, ConsensusTakeBackUnLockDepositInfo> takeBackUnLockDepositMap = new LinkedHashMap<String, ConsensusTakeBackUnLockDepositInfo>();
     private boolean hasCreate = false;
     private boolean hasStop = false;
     // 等待解锁退还的押金总额
@@ -82,6 +101,36 @@ public class ConsensusManager {
     private String lastWithdrawHash;
     private String lastStopHash;
 
+    // 合约创建的节点注销高度的缓存及其查询时的区块高度，同一区块内只查询一次节点状态
+    private long agentDelHeightCacheHeight = -1L;
+    private String agentDelHeightCache;
+
+    // 外部共识节点，自己的节点委托达到上限后，超出部分依次委托到外部节点
+    private List<ConsensusAgentInfo> externalAgents = new ArrayList<ConsensusAgentInfo>();
+
+    // 当前统计周期
+    private long exitStatCycle = -1L;
+    // 当前统计周期的退出金额
+    private BigInteger currentCycleExitAmount = BigInteger.ZERO;
+    // 每个统计周期退出金额的指数移动平均
+    private BigInteger exitAverageAmount = BigInteger.ZERO;
+
+    // 批量委托模式：抵押金额先累积在可用金额中，每个委托周期或累积达到阈值时统一委托
+    private boolean batchDelegation = false;
+    // 触发批量委托的累积金额阈值，为0时只按委托周期触发
+    private BigInteger batchDelegationThreshold = BigInteger.ZERO;
+    // 委托周期的起始高度
+    private long batchStartHeight;
+    // 委托周期的区块数
+    private long batchInterval;
+    // 上一次批量委托的委托周期
+    private long lastBatchCycle = -1L;
+
+    // 共识奖励分配给抵押者的比例(0-100)，其余归项目发布者
+    private int depositorAwardPercent = 0;
+    // 发放时合约余额不足而未发放的抵押者共识奖励，k-v：抵押者地址-金额，仍计入抵押者奖励池
+    private Map<String, BigInteger> unpaidDepositorAwards = new LinkedHashMap<String, BigInteger>();
+
     public ConsensusManager(Address packingAddress) {
         awardInfo = new ConsensusAwardInfo(Msg.address().toString());
         this.packingAddress = packingAddress.toString();
@@ -92,13 +141,107 @@ public class ConsensusManager {
      * 共识奖励收益处理
      * 创建的节点的100%佣金比例，收益地址只有当前合约地址
      *
-     * @param args 区块奖励地址明细 eg. [[address, amount], [address, amount], ...]
+     * 分配给抵押者的奖励按已委托的抵押金额计算每na的收益，未委托的金额不产生共识奖励；
+     * 抵押者按全部抵押金额累计收益，超出比例部分由项目发布者的份额承担，不超过本次奖励总额
+     *
+     * @param args       区块奖励地址明细 eg. [[address, amount], [address, amount], ...]
+     * @param totalStake 当前总抵押金额，抵押者按此累计收益
+     */
+    public void _payable(String[][] args, BigInteger totalStake) {
+        long height = Block.number();
+        String contractAddress = Msg.address().toString();
+        BigInteger amount = BigInteger.ZERO;
+        for (String[] award : args) {
+            BigInteger value = new BigInteger(award[1]);
+            // 各奖励地址的累计金额只用于对账查询，只有发给合约地址的奖励计入合约收益
+            awardInfo.record(award[0], value, height);
+            if (contractAddress.equals(award[0])) {
+                amount = amount.add(value);
+            }
+        }
+        BigInteger depositorPart = BigInteger.ZERO;
+        BigInteger delegatedStake = this.getDelegatedStake();
+        if (depositorAwardPercent > 0 && totalStake.compareTo(BigInteger.ZERO) > 0 && delegatedStake.compareTo(BigInteger.ZERO) > 0) {
+            BigInteger share = amount.multiply(BigInteger.valueOf(depositorAwardPercent)).divide(BigInteger.valueOf(100));
+            depositorPart = share.multiply(totalStake).divide(delegatedStake);
+            if (depositorPart.compareTo(amount) > 0) {
+                depositorPart = amount;
+            }
+            awardInfo.addDepositorAward(depositorPart, totalStake);
+        }
+        awardInfo.add(amount.subtract(depositorPart));
+    }
+
+    /**
+     * 设置共识奖励分配给抵押者的比例
+     */
+    public void setDepositorAwardPercent(int percent) {
+        require(percent >= 0 && percent <= 100, "比例应该在0到100之间");
+        depositorAwardPercent = percent;
+    }
+
+    public String getAwardSummary() {
+        return awardInfo.summary();
+    }
+
+    public BigInteger getAccAwardPerNa() {
+        return awardInfo.getAccAwardPerNa();
+    }
+
+    /**
+     * 用户抵押金额中已委托的部分，即合约的委托金额(包括外部节点)
+     */
+    private BigInteger getDelegatedStake() {
+        BigInteger delegated = depositLockedAmount;
+        for (ConsensusAgentInfo agent : externalAgents) {
+            delegated = delegated.add(agent.getDepositLockedAmount());
+        }
+        return delegated;
+    }
+
+    /**
+     * 合约余额中可用于退还押金的部分，除去共识奖励及抵押者尚未领取的共识奖励
+     */
+    public BigInteger getRefundableBalance() {
+        return Msg.address().balance()
+                .subtract(awardInfo.getAvailableAward())
+                .subtract(awardInfo.getDepositorAward());
+    }
+
+    /**
+     * 向抵押者发放已结算的共识奖励，合约余额不足时记为未发放，不影响退还押金
+     */
+    public void transferDepositorAward(Address depositor, BigInteger value) {
+        if (Msg.address().balance().compareTo(value) < 0) {
+            String depositorString = depositor.toString();
+            BigInteger unpaid = unpaidDepositorAwards.get(depositorString);
+            unpaidDepositorAwards.put(depositorString, unpaid == null ? value : unpaid.add(value));
+            return;
+        }
+        awardInfo.subtractDepositorAward(value);
+        depositor.transfer(value);
+    }
+
+    /**
+     * 领取之前未发放的抵押者共识奖励
+     */
+    public void takeBackUnpaidDepositorAward() {
+        Address sender = Msg.sender();
+        String senderString = sender.toString();
+        BigInteger unpaid = unpaidDepositorAwards.get(senderString);
+        require(unpaid != null, "没有未发放的共识奖励");
+        require(Msg.address().balance().compareTo(unpaid) >= 0, "合约余额不足");
+        unpaidDepositorAwards.remove(senderString);
+        awardInfo.subtractDepositorAward(unpaid);
+        sender.transfer(unpaid);
+    }
+
+    /**
+     * 未发放的抵押者共识奖励
      */
-    public void _payable(String[][] args) {
-        String[] award = args[0];
-        String address = award[0];
-        String amount = award[1];
-        awardInfo.add(new BigInteger(amount));
+    public BigInteger getUnpaidDepositorAward(String depositor) {
+        BigInteger unpaid = unpaidDepositorAwards.get(depositor);
+        return unpaid == null ? BigInteger.ZERO : unpaid;
     }
 
     /**
@@ -150,7 +293,7 @@ public class ConsensusManager {
      * @param currentInitial 是否在当前重置了可用余额，如果重置了，则不需要再计算value
      */
     public void createOrDepositIfPermittedWrapper(BigInteger value, boolean currentReset) {
-        tempDepositLockedAmount = depositLockedAmount;
+        this.snapshotDepositLockedAmount();
         this.createOrDepositIfPermitted(value, currentReset);
     }
 
@@ -162,20 +305,20 @@ public class ConsensusManager {
         }
         // 存在创建节点，检查节点状态
         if (hasCreate) {
-            String[] args = new String[]{lastAgentHash};
-            String[] info = (String[]) Utils.invokeExternalCmd("cs_getContractAgentInfo", args);
-            String delHeight = info[7];
+            String delHeight = this.getAgentDelHeight(lastAgentHash);
             // 已删除节点，不再自动创建
             if (!"-1".equals(delHeight)) {
                 return;
             }
-            BigInteger amount = availableAmount.subtract(ONE_NULS);
+            BigInteger reserve = this.getLiquidityReserve();
+            BigInteger amount = availableAmount.subtract(ONE_NULS).subtract(reserve);
             // 金额不够委托，退出上一笔委托，累积委托金额加入委托
             if (amount.compareTo(minJoinDeposit) < 0) {
-                if (depositList.size() == 0) {
+                // 需要保留流动性储备时，可用金额留作储备，不再合并委托
+                if (depositList.size() == 0 || reserve.compareTo(BigInteger.ZERO) > 0) {
                     return;
                 }
-                ConsensusDepositInfo last = depositList.removeLast();
+                ConsensusDepositInfo last = depositList.removeSmallest();
                 String withdrawHash = this.withdraw(last.getHash());
                 BigInteger lastDeposit = last.getDeposit();
                 availableAmount = availableAmount.subtract(fee).add(lastDeposit);
@@ -185,7 +328,7 @@ public class ConsensusManager {
                 deposit = amount;
             }
             // 委托
-            this.maintainCanDeposit(deposit);
+            this.maintainCanDeposit(deposit, false);
         } else {
             // 检查可用金额是否足以创建节点
             BigInteger amount = availableAmount.subtract(ONE_NULS);
@@ -201,17 +344,116 @@ public class ConsensusManager {
         }
     }
 
+    /**
+     * 设置批量委托模式
+     *
+     * @param open          是否开启批量委托
+     * @param threshold     触发委托的累积金额阈值，为0时只按委托周期触发
+     * @param startHeight   委托周期的起始高度
+     * @param interval      委托周期的区块数
+     */
+    public void setBatchDelegation(boolean open, BigInteger threshold, long startHeight, long interval) {
+        require(threshold.compareTo(BigInteger.ZERO) >= 0, "委托阈值不得小于0");
+        require(interval > 0, "委托周期应该大于0");
+        batchDelegation = open;
+        batchDelegationThreshold = threshold;
+        batchStartHeight = startHeight;
+        batchInterval = interval;
+    }
+
+    public boolean isBatchDelegation() {
+        return batchDelegation;
+    }
+
+    /**
+     * 批量委托模式下，累积抵押金额，进入新的委托周期或累积金额达到阈值时统一委托
+     *
+     * @param value        投资的押金
+     * @param currentReset 是否在当前重置了可用余额，如果重置了，则不需要再计算value
+     */
+    public void accumulateAndDelegateIfDue(BigInteger value, boolean currentReset) {
+        if (!currentReset) {
+            availableAmount = availableAmount.add(value);
+        }
+        this.delegatePendingIfDue();
+    }
+
+    /**
+     * 批量委托累积的可用金额，由抵押交易或任何账户(keeper)触发
+     *
+     * @return 是否进行了委托
+     */
+    public boolean delegatePendingIfDue() {
+        long currentCycle = (Block.number() - batchStartHeight) / batchInterval;
+        boolean thresholdReached = batchDelegationThreshold.compareTo(BigInteger.ZERO) > 0
+                && availableAmount.compareTo(batchDelegationThreshold) >= 0;
+        if (currentCycle <= lastBatchCycle && !thresholdReached) {
+            return false;
+        }
+        // 累积金额不足以委托(或创建节点)则继续等待，不退出已有委托来合并
+        BigInteger required = hasCreate ? minJoinDeposit : minCreateDeposit;
+        BigInteger reserve = hasCreate ? this.getLiquidityReserve() : BigInteger.ZERO;
+        if (availableAmount.subtract(ONE_NULS).subtract(reserve).compareTo(required) < 0) {
+            return false;
+        }
+        lastBatchCycle = currentCycle;
+        this.createOrDepositIfPermittedWrapper(BigInteger.ZERO, true);
+        return true;
+    }
+
     /**
      * 当可用金额达到最小可委托金额时，合约拥有者可手动委托节点
      */
     public void depositManually() {
         require(this.isUnLockedConsensus(), "共识功能锁定中");
         require(hasCreate, "未创建节点");
-        tempDepositLockedAmount = depositLockedAmount;
+        this.snapshotDepositLockedAmount();
         BigInteger amount = availableAmount.subtract(ONE_NULS);
         require(amount.compareTo(minJoinDeposit) >= 0, "可用金额不足以委托节点");
         // 委托
-        this.maintainCanDeposit(amount);
+        this.maintainCanDeposit(amount, false);
+    }
+
+    /**
+     * 合并小额委托：退出自己节点上最小的最多maxOps笔委托，合并为一笔重新委托，减少以后退出委托的交易次数
+     * 同一交易中退出的委托金额不能立即计入可委托额度，合并的总金额不超过节点剩余的可委托额度
+     *
+     * @param maxOps 最多退出的委托笔数(2-20)
+     * @return 合并的委托笔数
+     */
+    public int compactDelegations(int maxOps) {
+        require(this.isUnLockedConsensus(), "共识功能锁定中");
+        require(hasCreate, "未创建节点");
+        require(maxOps >= 2 && maxOps <= maxCompactOps, "合并笔数应该在2到" + maxCompactOps + "之间");
+        require(depositList.size() >= 2, "委托笔数不足，无需合并");
+        require("-1".equals(this.getAgentDelHeight(lastAgentHash)), "节点已注销");
+        this.checkCurrentReset();
+        // 退出委托和重新委托的手续费从可用金额中支付，按最多笔数预先检查
+        BigInteger maxFees = fee.multiply(BigInteger.valueOf(maxOps + 1));
+        require(availableAmount.compareTo(maxFees) >= 0, "可用金额不足以支付合并委托的手续费");
+        this.snapshotDepositLockedAmount();
+        BigInteger canDeposit = maxTotalDeposit.subtract(tempDepositLockedAmount);
+        BigInteger total = BigInteger.ZERO;
+        int count = 0;
+        ConsensusDepositInfo info;
+        while (count < maxOps && depositList.size() > 0) {
+            // 合并后的金额不超过可委托额度
+            if (total.add(depositList.ceiling(BigInteger.ZERO).getDeposit()).compareTo(canDeposit) > 0) {
+                break;
+            }
+            info = depositList.removeSmallest();
+            this.withdraw(info.getHash());
+            availableAmount = availableAmount.subtract(fee).add(info.getDeposit());
+            depositLockedAmount = depositLockedAmount.subtract(info.getDeposit());
+            total = total.add(info.getDeposit());
+            count++;
+        }
+        require(count >= 2, "可委托额度不足，无法合并");
+        String txHash = this.deposit(lastAgentHash, total);
+        depositList.add(new ConsensusDepositInfo(txHash, total));
+        availableAmount = availableAmount.subtract(fee).subtract(total);
+        depositLockedAmount = depositLockedAmount.add(total);
+        return count;
     }
 
     /**
@@ -221,7 +463,11 @@ public class ConsensusManager {
      * @return true - 退出委托后余额足够, false - 退出委托，注销节点，余额被锁定一部分(3天)，可用余额不足以退还押金
      */
     public boolean withdrawIfPermittedWrapper(BigInteger value) {
-        tempDepositLockedAmount = depositLockedAmount;
+        this.snapshotDepositLockedAmount();
+        if (availableAmount.compareTo(value) < 0) {
+            // 需要退出委托时才检查外部节点状态
+            this.pruneStoppedExternalAgents();
+        }
         return this.withdrawIfPermitted(value);
     }
 
@@ -231,7 +477,7 @@ public class ConsensusManager {
             return true;
         }
         // 可用金额在退出所有委托后还不足，注销节点
-        if (depositList.size() == 0) {
+        if (this.totalDepositCount() == 0) {
             if (hasStop) {
                 return false;
             }
@@ -240,25 +486,260 @@ public class ConsensusManager {
             this.lockConsensus();
             return false;
         }
-        ConsensusDepositInfo last = depositList.removeLast();
-        String withdrawHash = this.withdraw(last.getHash());
-        BigInteger deposit = last.getDeposit();
-        availableAmount = availableAmount.subtract(fee).add(deposit);
-        depositLockedAmount = depositLockedAmount.subtract(deposit);
+        this.withdrawBestFit(value);
         if (availableAmount.compareTo(value) < 0) {
             return withdrawIfPermitted(value);
         } else {
             availableAmount = availableAmount.subtract(value);
-            // 若可用金额足够，则继续委托进去
-            BigInteger amount = availableAmount.subtract(ONE_NULS);
+            // 若可用金额在保留流动性储备后仍然足够，则继续委托进去
+            BigInteger amount = availableAmount.subtract(ONE_NULS).subtract(this.getLiquidityReserve());
             if (amount.compareTo(minJoinDeposit) >= 0) {
                 // 委托
-                this.maintainCanDeposit(amount);
+                // 退出委托前已检查过外部节点状态
+                this.maintainCanDeposit(amount, true);
             }
             return true;
         }
     }
 
+    /**
+     * 押金直接从合约余额退还时，扣减可用金额，最多扣减至0
+     * 未重置时可用金额会在重置时按合约余额重新计算，无需扣减
+     */
+    public void consumeAvailable(BigInteger value) {
+        if (!isReset) {
+            return;
+        }
+        if (availableAmount.compareTo(value) >= 0) {
+            availableAmount = availableAmount.subtract(value);
+        } else {
+            availableAmount = BigInteger.ZERO;
+        }
+    }
+
+    /**
+     * 在所有节点的委托中选择并退出一笔委托：优先选择足以补足差额的最小委托，只需退出一次，剩余金额最少
+     * 没有单笔委托足以补足差额时，先退出最大的委托，使退出次数最少
+     *
+     * @param value 需要退还的押金
+     */
+    private void withdrawBestFit(BigInteger value) {
+        BigInteger shortfall = value.subtract(availableAmount).add(fee);
+        ConsensusDepositInfo selected = depositList.ceiling(shortfall);
+        ConsensusAgentInfo selectedAgent = null;
+        ConsensusDepositInfo candidate;
+        for (ConsensusAgentInfo agent : externalAgents) {
+            candidate = agent.getDepositList().ceiling(shortfall);
+            if (candidate != null && (selected == null || candidate.getDeposit().compareTo(selected.getDeposit()) < 0)) {
+                selected = candidate;
+                selectedAgent = agent;
+            }
+        }
+        if (selected == null) {
+            selected = depositList.largest();
+            for (ConsensusAgentInfo agent : externalAgents) {
+                candidate = agent.getDepositList().largest();
+                if (candidate != null && (selected == null || candidate.getDeposit().compareTo(selected.getDeposit()) > 0)) {
+                    selected = candidate;
+                    selectedAgent = agent;
+                }
+            }
+        }
+        String withdrawHash = this.withdraw(selected.getHash());
+        BigInteger deposit = selected.getDeposit();
+        availableAmount = availableAmount.subtract(fee).add(deposit);
+        if (selectedAgent == null) {
+            depositList.remove(selected);
+            depositLockedAmount = depositLockedAmount.subtract(deposit);
+        } else {
+            selectedAgent.getDepositList().remove(selected);
+            selectedAgent.setDepositLockedAmount(selectedAgent.getDepositLockedAmount().subtract(deposit));
+        }
+    }
+
+    /**
+     * 模拟withdrawIfPermitted需要退出的委托笔数，不修改状态
+     *
+     * @param value 需要退还的押金
+     * @return 退出委托的笔数，-1表示退出所有委托后仍不足，将注销节点并锁定押金
+     */
+    public int simulateWithdrawCount(BigInteger value) {
+        BigInteger available = availableAmount;
+        if (!isReset) {
+            available = this.getRefundableBalance()
+                    .subtract(totalTakeBackLockDeposit);
+            if (!hasCreate) {
+                available = available.subtract(ownerCreateAgentDeposit);
+            }
+        }
+        if (available.compareTo(value) >= 0) {
+            return 0;
+        }
+        // 所有委托按金额降序，与withdrawBestFit的选择顺序一致：有单笔委托足以补足差额时只需再退出一笔，否则退出最大的一笔
+        List<BigInteger> deposits = depositList.amounts();
+        for (ConsensusAgentInfo agent : externalAgents) {
+            deposits.addAll(agent.getDepositList().amounts());
+        }
+        Collections.sort(deposits, Collections.reverseOrder());
+        int count = 0;
+        for (BigInteger deposit : deposits) {
+            BigInteger shortfall = value.subtract(available).add(fee);
+            count++;
+            if (deposit.compareTo(shortfall) >= 0) {
+                return count;
+            }
+            available = available.subtract(fee).add(deposit);
+            if (available.compareTo(value) >= 0) {
+                return count;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 所有节点的委托笔数
+     */
+    private int totalDepositCount() {
+        int count = depositList.size();
+        for (ConsensusAgentInfo agent : externalAgents) {
+            count += agent.getDepositList().size();
+        }
+        return count;
+    }
+
+    /**
+     * 记录本次交易开始时自己节点的委托金额，外部节点的委托总额在检查外部节点状态时读取
+     */
+    private void snapshotDepositLockedAmount() {
+        tempDepositLockedAmount = depositLockedAmount;
+    }
+
+    /**
+     * 移除已注销的外部节点，并读取其余外部节点当前的委托总额，委托时按委托总额计算节点剩余可委托的金额
+     * 只在需要委托到外部节点或从外部节点退出委托时调用，每个交易最多调用一次，且在本交易退出外部节点的委托之前调用
+     */
+    private void pruneStoppedExternalAgents() {
+        for (int i = externalAgents.size() - 1; i >= 0; i--) {
+            ConsensusAgentInfo agent = externalAgents.get(i);
+            String[] info = this.getAgentInfo(agent.getAgentHash());
+            if (!"-1".equals(info[agentInfoDelHeightIndex])) {
+                // 外部节点已注销，委托金额已退回合约
+                availableAmount = availableAmount.add(agent.getDepositLockedAmount());
+                externalAgents.remove(i);
+            } else {
+                agent.setTempAgentTotalDeposit(new BigInteger(info[agentInfoTotalDepositIndex]));
+            }
+        }
+    }
+
+    /**
+     * 退出所有外部节点的委托，委托金额退回合约
+     */
+    private void withdrawExternalAgents() {
+        for (ConsensusAgentInfo agent : externalAgents) {
+            ConsensusDepositList list = agent.getDepositList();
+            if (list.size() > 0 && "-1".equals(this.getAgentDelHeight(agent.getAgentHash()))) {
+                ConsensusDepositInfo info;
+                while ((info = list.removeSmallest()) != null) {
+                    this.withdraw(info.getHash());
+                }
+            }
+            list.clear();
+            agent.setDepositLockedAmount(BigInteger.ZERO);
+        }
+    }
+
+    /**
+     * 添加外部共识节点
+     */
+    public void addExternalAgent(String agentHash) {
+        require(agentHash != null && agentHash.trim().length() > 0, "节点hash不能为空");
+        require(!agentHash.equals(lastAgentHash), "不能添加合约创建的节点");
+        require(externalAgents.size() < maxExternalAgentCount, "外部节点不得超过" + maxExternalAgentCount + "个");
+        for (ConsensusAgentInfo agent : externalAgents) {
+            require(!agent.getAgentHash().equals(agentHash), "外部节点已存在");
+        }
+        require("-1".equals(this.getAgentDelHeight(agentHash)), "外部节点已注销");
+        externalAgents.add(new ConsensusAgentInfo(agentHash));
+    }
+
+    /**
+     * 移除外部共识节点，节点仍有委托时不能移除；节点已注销时委托金额已退回合约
+     */
+    public void removeExternalAgent(String agentHash) {
+        require(this.isUnLockedConsensus(), "共识功能锁定中");
+        ConsensusAgentInfo removed = null;
+        for (ConsensusAgentInfo agent : externalAgents) {
+            if (agent.getAgentHash().equals(agentHash)) {
+                removed = agent;
+                break;
+            }
+        }
+        require(removed != null, "外部节点不存在");
+        if (!"-1".equals(this.getAgentDelHeight(agentHash))) {
+            // 外部节点已注销，委托金额已退回合约
+            availableAmount = availableAmount.add(removed.getDepositLockedAmount());
+        } else {
+            require(removed.getDepositList().size() == 0, "外部节点仍有委托，不能移除");
+        }
+        externalAgents.remove(removed);
+    }
+
+    /**
+     * 记录用户退出的押金，按统计周期更新退出金额的移动平均
+     */
+    public void recordExit(BigInteger value) {
+        this.rollExitStatCycle();
+        currentCycleExitAmount = currentCycleExitAmount.add(value);
+    }
+
+    /**
+     * 进入新的统计周期时，将已结束周期的退出金额计入移动平均，没有退出的周期按0计入
+     */
+    private void rollExitStatCycle() {
+        long cycle = Block.number() / exitStatPeriod;
+        if (cycle == exitStatCycle) {
+            return;
+        }
+        if (exitStatCycle != -1L) {
+            BigInteger weight = BigInteger.valueOf(exitAverageWeight);
+            BigInteger keep = BigInteger.valueOf(exitAverageWeight - 1);
+            exitAverageAmount = exitAverageAmount.multiply(keep).add(currentCycleExitAmount).divide(weight);
+            long idleCycles = cycle - exitStatCycle - 1;
+            for (long i = 0; i < idleCycles && exitAverageAmount.compareTo(BigInteger.ZERO) > 0; i++) {
+                exitAverageAmount = exitAverageAmount.multiply(keep).divide(weight);
+            }
+        }
+        exitStatCycle = cycle;
+        currentCycleExitAmount = BigInteger.ZERO;
+    }
+
+    /**
+     * 流动性储备：保留在合约中不委托的金额，为每周期平均退出金额的2倍，不超过总抵押金额的20%
+     */
+    public BigInteger getLiquidityReserve() {
+        BigInteger average = exitAverageAmount;
+        long cycle = Block.number() / exitStatPeriod;
+        if (cycle != exitStatCycle && exitStatCycle != -1L) {
+            // 统计周期已结束但尚未滚动，按结束时的数据估算
+            BigInteger weight = BigInteger.valueOf(exitAverageWeight);
+            average = average.multiply(BigInteger.valueOf(exitAverageWeight - 1)).add(currentCycleExitAmount).divide(weight);
+        }
+        BigInteger reserve = average.multiply(BigInteger.valueOf(reserveMultiple));
+        BigInteger totalStake = availableAmount.add(depositLockedAmount);
+        for (ConsensusAgentInfo agent : externalAgents) {
+            totalStake = totalStake.add(agent.getDepositLockedAmount());
+        }
+        BigInteger maxReserve = totalStake.multiply(BigInteger.valueOf(maxReservePercent)).divide(BigInteger.valueOf(100));
+        if (reserve.compareTo(maxReserve) > 0) {
+            reserve = maxReserve;
+        }
+        if (reserve.compareTo(BigInteger.ZERO) < 0) {
+            reserve = BigInteger.ZERO;
+        }
+        return reserve;
+    }
+
     /**
      * 检查是否重置，若没有，则重置
      */
@@ -266,9 +747,8 @@ public class ConsensusManager {
         if (isReset) {
             return false;
         }
-        // 除去共识收益，除去等待解锁退还的押金总额，项目发布者缴纳的创建节点保证金
-        availableAmount = Msg.address().balance()
-                .subtract(awardInfo.getAvailableAward())
+        // 除去共识收益(包括抵押者尚未领取的部分)，除去等待解锁退还的押金总额，项目发布者缴纳的创建节点保证金
+        availableAmount = this.getRefundableBalance()
                 .subtract(totalTakeBackLockDeposit);
         // 创建节点后，保证金被锁定，不在可用余额范围中
         if (!hasCreate) {
@@ -305,6 +785,7 @@ public class ConsensusManager {
         require(takeBackDeposit != null, "没有查询到[" + senderString + "]的解锁押金");
         BigInteger deposit = takeBackDeposit.getDeposit();
         require(deposit.compareTo(BigInteger.ZERO) > 0, "[" + senderString + "]没有足够的押金");
+        require(this.getRefundableBalance().compareTo(deposit) >= 0, "合约余额不足");
         totalTakeBackLockDeposit = totalTakeBackLockDeposit.subtract(deposit);
         sender.transfer(deposit);
     }
@@ -316,6 +797,7 @@ public class ConsensusManager {
     public void refundAllUnLockDeposit() {
         require(this.isUnLockedAgentDeposit(), "押金锁定中");
         require(takeBackUnLockDepositMap.size() > 0, "无退还信息");
+        require(this.getRefundableBalance().compareTo(totalTakeBackLockDeposit) >= 0, "合约余额不足");
         Set<Map.Entry<String, ConsensusTakeBackUnLockDepositInfo>> entries = takeBackUnLockDepositMap.entrySet();
         BigInteger deposit;
         for (Map.Entry<String, ConsensusTakeBackUnLockDepositInfo> entry : entries) {
@@ -326,6 +808,55 @@ public class ConsensusManager {
         takeBackUnLockDepositMap.clear();
     }
 
+    /**
+     * 共识保证金解锁后，按申请退出的先后顺序分批退还押金，每次最多退还maxCount个用户
+     * 已退还的用户从集合中移除，下一批从剩余的第一个用户继续
+     *
+     * @return 本次退还的用户数量
+     */
+    public int refundUnLockDepositBatch(int maxCount) {
+        require(this.isUnLockedAgentDeposit(), "押金锁定中");
+        return this.refundUnLockDepositInOrder(maxCount);
+    }
+
+    /**
+     * 自动退还：共识保证金解锁后，由普通交易顺带退还队列前面的最多maxCount个用户的押金
+     * 押金锁定中、队列为空或合约余额不足时不做任何处理
+     *
+     * @return 本次退还的用户数量
+     */
+    public int autoRefundUnLockDeposit(int maxCount) {
+        if (takeBackUnLockDepositMap.isEmpty() || !this.isUnLockedAgentDeposit()) {
+            return 0;
+        }
+        return this.refundUnLockDepositInOrder(maxCount);
+    }
+
+    private int refundUnLockDepositInOrder(int maxCount) {
+        Iterator<Map.Entry<String, ConsensusTakeBackUnLockDepositInfo>> iterator = takeBackUnLockDepositMap.entrySet().iterator();
+        int count = 0;
+        BigInteger deposit;
+        while (count < maxCount && iterator.hasNext()) {
+            Map.Entry<String, ConsensusTakeBackUnLockDepositInfo> entry = iterator.next();
+            deposit = entry.getValue().getDeposit();
+            if (this.getRefundableBalance().compareTo(deposit) < 0) {
+                break;
+            }
+            iterator.remove();
+            totalTakeBackLockDeposit = totalTakeBackLockDeposit.subtract(deposit);
+            new Address(entry.getKey()).transfer(deposit);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * 等待退还解锁押金的用户数量
+     */
+    public int getTakeBackUnLockDepositCount() {
+        return takeBackUnLockDepositMap.size();
+    }
+
     /**
      * 转移共识奖励金额
      */
@@ -362,6 +893,8 @@ public class ConsensusManager {
     public void stopAgentManually() {
         require(this.isUnLockedConsensus(), "共识功能锁定中");
         require(hasCreate, "未创建节点");
+        // 外部节点的委托一并退出，共识功能解锁后重新计算可用金额
+        this.withdrawExternalAgents();
         this.stopAgent();
         this.lockConsensus();
     }
@@ -380,18 +913,42 @@ public class ConsensusManager {
         return lastAgentHash;
     }
 
+    /**
+     * 查询节点的注销高度，合约创建的节点按区块高度缓存，缓存只保留最近一次的查询结果
+     */
+    private String getAgentDelHeight(String agentHash) {
+        if (!agentHash.equals(lastAgentHash)) {
+            return this.queryAgentDelHeight(agentHash);
+        }
+        long currentHeight = Block.number();
+        if (agentDelHeightCacheHeight != currentHeight) {
+            agentDelHeightCache = this.queryAgentDelHeight(agentHash);
+            agentDelHeightCacheHeight = currentHeight;
+        }
+        return agentDelHeightCache;
+    }
+
+    private String queryAgentDelHeight(String agentHash) {
+        return this.getAgentInfo(agentHash)[agentInfoDelHeightIndex];
+    }
+
+    private String[] getAgentInfo(String agentHash) {
+        String[] args = new String[]{agentHash};
+        return (String[]) Utils.invokeExternalCmd("cs_getContractAgentInfo", args);
+    }
+
     private String createAgent(String packingAddress, BigInteger depositNa, String commissionRate) {
         String[] args = new String[]{packingAddress, depositNa.toString(), commissionRate};
         String txHash = (String) Utils.invokeExternalCmd("cs_createContractAgent", args);
         lastAgentHash = txHash;
         hasCreate = true;
+        agentDelHeightCacheHeight = -1L;
         return txHash;
     }
 
     private String deposit(String agentHash, BigInteger depositNa) {
         String[] args = new String[]{agentHash, depositNa.toString()};
         String txHash = (String) Utils.invokeExternalCmd("cs_contractDeposit", args);
-        this.orderlyAdditionToDepositList(new ConsensusDepositInfo(txHash, depositNa));
         return txHash;
     }
 
@@ -407,53 +964,81 @@ public class ConsensusManager {
         lastStopHash = txHash;
         hasStop = true;
         hasCreate = false;
+        agentDelHeightCacheHeight = -1L;
         return txHash;
     }
 
-    private void orderlyAdditionToDepositList(ConsensusDepositInfo info) {
-        BigInteger deposit = info.getDeposit();
-        int size = depositList.size();
-        if (size == 0) {
-            depositList.add(info);
+    /**
+     * 如果本次委托金额和当前已委托金额累加值大于最大限额，就委托不超过限额的那部分(不能连续交易的补救方式)
+     * 超出自己节点限额的部分依次委托到外部节点，每个外部节点同样不超过最大限额
+     * @param amount        本次委托金额
+     * @param agentsChecked 本次交易是否已检查过外部节点状态
+     */
+    private void maintainCanDeposit(BigInteger amount, boolean agentsChecked) {
+        BigInteger canDepoist = amount;
+        if(canDepoist.add(tempDepositLockedAmount).compareTo(maxTotalDeposit) > 0) {
+            canDepoist = maxTotalDeposit.subtract(tempDepositLockedAmount);
+        }
+        BigInteger remaining = amount;
+        BigInteger fees;
+        if(canDepoist.compareTo(minJoinDeposit) >= 0) {
+            fees = this.depositLaddered(lastAgentHash, depositList, canDepoist);
+            availableAmount = availableAmount.subtract(fees).subtract(canDepoist);
+            depositLockedAmount = depositLockedAmount.add(canDepoist);
+            remaining = remaining.subtract(canDepoist).subtract(fees);
+        }
+        if (remaining.compareTo(minJoinDeposit) < 0 || externalAgents.isEmpty()) {
             return;
         }
-        BigInteger compare;
-        int result;
-        int last = size - 1;
-        for (int i = 0; i < size; i++) {
-            compare = depositList.get(i).getDeposit();
-            result = compare.compareTo(deposit);
-            if (result > 0) {
-                if (i == last) {
-                    depositList.addLast(info);
-                    break;
-                }
+        // 需要委托到外部节点时才检查外部节点状态
+        if (!agentsChecked) {
+            this.pruneStoppedExternalAgents();
+        }
+        for (ConsensusAgentInfo agent : externalAgents) {
+            if(remaining.compareTo(minJoinDeposit) < 0) {
+                return;
+            }
+            // 节点的委托总额包含其他委托者的委托，按节点实际剩余的额度委托
+            canDepoist = remaining;
+            if(canDepoist.add(agent.getTempAgentTotalDeposit()).compareTo(maxTotalDeposit) > 0) {
+                canDepoist = maxTotalDeposit.subtract(agent.getTempAgentTotalDeposit());
+            }
+            if(canDepoist.compareTo(minJoinDeposit) < 0) {
                 continue;
-            } else if (result == 0) {
-                depositList.add(i + 1, info);
-                break;
-            } else {
-                depositList.add(i, info);
-                break;
             }
+            fees = this.depositLaddered(agent.getAgentHash(), agent.getDepositList(), canDepoist);
+            agent.setDepositLockedAmount(agent.getDepositLockedAmount().add(canDepoist));
+            agent.setTempAgentTotalDeposit(agent.getTempAgentTotalDeposit().add(canDepoist));
+            availableAmount = availableAmount.subtract(fees).subtract(canDepoist);
+            remaining = remaining.subtract(canDepoist).subtract(fees);
         }
     }
 
     /**
-     * 如果本次委托金额和当前已委托金额累加值大于最大限额，就委托不超过限额的那部分(不能连续交易的补救方式)
-     * @param amount 本次委托金额
+     * 按阶梯金额拆分委托：委托金额按最小委托金额的2的幂次拆分为多笔，不足最小委托金额的余数并入最大的一笔
+     * 退出时总能找到大小接近的一笔委托，避免为少量退还退出大额委托
+     *
+     * @param agentHash 委托的节点
+     * @param list      记录委托的列表
+     * @param amount    委托金额，不小于最小委托金额
+     * @return 委托交易的手续费总额
      */
-    private void maintainCanDeposit(BigInteger amount) {
-        BigInteger canDepoist = amount;
-        if(canDepoist.add(tempDepositLockedAmount).compareTo(maxTotalDeposit) > 0) {
-            canDepoist = maxTotalDeposit.subtract(tempDepositLockedAmount);
-        }
-        if(canDepoist.compareTo(minJoinDeposit) < 0) {
-            return;
+    private BigInteger depositLaddered(String agentHash, ConsensusDepositList list, BigInteger amount) {
+        BigInteger[] divide = amount.divideAndRemainder(minJoinDeposit);
+        BigInteger units = divide[0];
+        BigInteger remainder = divide[1];
+        BigInteger fees = BigInteger.ZERO;
+        for (int bit = units.bitLength() - 1; bit >= 0; bit--) {
+            if (!units.testBit(bit)) {
+                continue;
+            }
+            BigInteger depositNa = minJoinDeposit.shiftLeft(bit).add(remainder);
+            remainder = BigInteger.ZERO;
+            String txHash = this.deposit(agentHash, depositNa);
+            list.add(new ConsensusDepositInfo(txHash, depositNa));
+            fees = fees.add(fee);
         }
-        this.deposit(lastAgentHash, canDepoist);
-        availableAmount = availableAmount.subtract(fee).subtract(canDepoist);
-        depositLockedAmount = depositLockedAmount.add(canDepoist);
+        return fees;
     }
 
     /**
@@ -465,6 +1050,10 @@ public class ConsensusManager {
         availableAmount = BigInteger.ZERO;
         depositLockedAmount = BigInteger.ZERO;
         depositList.clear();
+        for (ConsensusAgentInfo agent : externalAgents) {
+            agent.getDepositList().clear();
+            agent.setDepositLockedAmount(BigInteger.ZERO);
+        }
         isReset = false;
     }
 
@@ -479,13 +1068,16 @@ public class ConsensusManager {
                 .append('\"').append(lastAgentHash).append('\"');
         sb.append(",\"agentDeposit\":")
                 .append('\"').append(toNuls(agentDeposit).toPlainString()).append('\"');
-        sb.append(",\"depositList\":");
+        sb.append(",\"depositList\":")
+                .append(depositList.toString());
+
+        sb.append(",\"externalAgents\":");
 
         sb.append('[');
-        for (ConsensusDepositInfo info : depositList) {
-            sb.append(info.toString()).append(',');
+        for (ConsensusAgentInfo agent : externalAgents) {
+            sb.append(agent.toString()).append(',');
         }
-        if (depositList.size() > 0) {
+        if (externalAgents.size() > 0) {
             sb.deleteCharAt(sb.length() - 1);
         }
         sb.append(']');
@@ -498,6 +1090,10 @@ public class ConsensusManager {
                 .append('\"').append(toNuls(depositLockedAmount).toPlainString()).append('\"');
         sb.append(",\"tempDepositLockedAmount\":")
                 .append('\"').append(toNuls(tempDepositLockedAmount).toPlainString()).append('\"');
+        sb.append(",\"exitAverageAmount\":")
+                .append('\"').append(toNuls(exitAverageAmount).toPlainString()).append('\"');
+        sb.append(",\"currentCycleExitAmount\":")
+                .append('\"').append(toNuls(currentCycleExitAmount).toPlainString()).append('\"');
         sb.append(",\"awardInfo\":")
                 .append(awardInfo.toString());
         sb.append(",\"unlockConsensusTime\":")
@@ -506,6 +1102,12 @@ public class ConsensusManager {
                 .append(unlockAgentDepositTime);
         sb.append(",\"isReset\":")
                 .append(isReset);
+        sb.append(",\"batchDelegation\":")
+                .append(batchDelegation);
+        sb.append(",\"batchDelegationThreshold\":")
+                .append('\"').append(toNuls(batchDelegationThreshold).toPlainString()).append('\"');
+        sb.append(",\"lastBatchCycle\":")
+                .append(lastBatchCycle);
         sb.append(",\"takeBackUnLockDepositMap\":");
 
         sb.append('{');
@@ -0,0 +1,96 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2017-2018 nuls.io
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.nuls.pocm.contract.manager;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import static io.nuls.pocm.contract.util.PocmUtil.toNuls;
+
+/**
+ * 抵押排行榜，按抵押总额有序保存所有抵押者，相同金额的抵押者放在同一个桶中按地址排序
+ * 抵押总额变动时更新为O(log n)，查询前n名只遍历前n个抵押者
+ */
+public class TopDepositorManager {
+    // k-v：抵押总额-该金额的抵押者地址
+    private TreeMap<BigInteger, TreeSet<String>> ranking = new TreeMap<BigInteger, TreeSet<String>>();
+    // k-v：抵押者地址-抵押总额
+    private Map<String, BigInteger> amounts = new HashMap<String, BigInteger>();
+
+    /**
+     * 抵押者的抵押总额变动后更新排行，抵押总额为0时移出排行
+     */
+    public void update(String address, BigInteger depositTotalAmount) {
+        BigInteger oldAmount = amounts.remove(address);
+        if (oldAmount != null) {
+            TreeSet<String> bucket = ranking.get(oldAmount);
+            bucket.remove(address);
+            if (bucket.isEmpty()) {
+                ranking.remove(oldAmount);
+            }
+        }
+        if (depositTotalAmount.compareTo(BigInteger.ZERO) <= 0) {
+            return;
+        }
+        TreeSet<String> bucket = ranking.get(depositTotalAmount);
+        if (bucket == null) {
+            bucket = new TreeSet<String>();
+            ranking.put(depositTotalAmount, bucket);
+        }
+        bucket.add(address);
+        amounts.put(address, depositTotalAmount);
+    }
+
+    /**
+     * 排行前n名
+     */
+    public String top(int n) {
+        final StringBuilder sb = new StringBuilder("[");
+        int count = 0;
+        for (Map.Entry<BigInteger, TreeSet<String>> entry : ranking.descendingMap().entrySet()) {
+            for (String address : entry.getValue()) {
+                if (count >= n) {
+                    break;
+                }
+                sb.append("{\"address\":")
+                        .append('\"').append(address).append('\"');
+                sb.append(",\"depositTotalAmount\":")
+                        .append('\"').append(toNuls(entry.getKey()).toPlainString()).append('\"');
+                sb.append("},");
+                count++;
+            }
+            if (count >= n) {
+                break;
+            }
+        }
+        if (count > 0) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+}
@@ -67,12 +67,35 @@ public class TotalDepositManager {
     public void add(BigInteger value) {
         this.totalDeposit = this.totalDeposit.add(value);
         if(openConsensus && consensusManager.isUnLockedConsensus()) {
-            consensusManager.createOrDepositIfPermittedWrapper(value, consensusManager.checkCurrentReset());
+            boolean currentReset = consensusManager.checkCurrentReset();
+            if(consensusManager.isBatchDelegation()) {
+                consensusManager.accumulateAndDelegateIfDue(value, currentReset);
+            } else {
+                consensusManager.createOrDepositIfPermittedWrapper(value, currentReset);
+            }
         }
     }
 
+    /**
+     * 模拟subtract，不修改状态
+     *
+     * @return 0 - 合约余额足够，直接退还; 大于0 - 需要退出共识委托的笔数; -1 - 押金将被锁定，延后退还
+     */
+    public int simulateSubtract(BigInteger value) {
+        if(this.isEnoughBalance(value) || !openConsensus) {
+            return 0;
+        }
+        if(!consensusManager.isUnLockedConsensus()) {
+            return -1;
+        }
+        return consensusManager.simulateWithdrawCount(value);
+    }
+
     public boolean subtract(BigInteger value) {
         this.totalDeposit = this.totalDeposit.subtract(value);
+        if(openConsensus) {
+            consensusManager.recordExit(value);
+        }
         /**
          *  情况：用户抵押金被当作了节点创建的保证金
          *       项目拥有者手动注销了节点，保证金被锁定3天
@@ -85,7 +108,11 @@ public class TotalDepositManager {
          *                锁定中 - 返回false
          *                未锁定 - 调用withdrawIfPermitted
          */
-        if(Msg.address().balance().compareTo(value) >= 0) {
+        if(this.isEnoughBalance(value)) {
+            if(openConsensus) {
+                // 从合约余额(流动性储备)中直接退还，同步扣减共识的可用金额
+                consensusManager.consumeAvailable(value);
+            }
             return true;
         } else {
             if(openConsensus) {
@@ -100,4 +127,14 @@ public class TotalDepositManager {
             }
         }
     }
+
+    /**
+     * 合约余额是否足以直接退还押金，开启共识时除去共识奖励
+     */
+    private boolean isEnoughBalance(BigInteger value) {
+        if(openConsensus) {
+            return consensusManager.getRefundableBalance().compareTo(value) >= 0;
+        }
+        return Msg.address().balance().compareTo(value) >= 0;
+    }
 }
@@ -0,0 +1,162 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2017-2018 nuls.io
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.nuls.pocm.contract.manager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按解锁高度排序的抵押索引
+ * 抵押高度随区块递增，最短锁定区块固定，因此按加入顺序追加即按解锁高度有序(也按抵押编号有序)，查询时二分查找起始位置
+ * 退出抵押时只从有效集合中删除，列表中的失效项由合约拥有者调用compact分批清除，不由用户的退出交易承担
+ * 分批清除时有效项前移到写入位置，列表的有效部分为[0, compactWriteIndex)和[compactReadIndex, size)两段
+ */
+public class UnlockIndexManager {
+    // 抵押编号列表，按解锁高度升序
+    private List<Long> depositNumbers = new ArrayList<Long>();
+    // 解锁高度列表，与抵押编号列表一一对应
+    private List<Long> unlockHeights = new ArrayList<Long>();
+    // 有效的抵押，k-v：抵押编号-抵押者地址
+    private Map<Long, String> liveDeposits = new HashMap<Long, String>();
+    // 分批清除的读取位置和写入位置，两者相等时没有正在进行的清除
+    private int compactReadIndex = 0;
+    private int compactWriteIndex = 0;
+
+    public void add(long depositNumber, String depositorAddress, long unlockHeight) {
+        int size = depositNumbers.size();
+        if (compactWriteIndex < compactReadIndex && compactReadIndex == size) {
+            // 清除已读到末尾，直接写入空出的位置，保持有效部分连续
+            depositNumbers.set(compactWriteIndex, depositNumber);
+            unlockHeights.set(compactWriteIndex, unlockHeight);
+            compactWriteIndex++;
+        } else {
+            depositNumbers.add(depositNumber);
+            unlockHeights.add(unlockHeight);
+        }
+        liveDeposits.put(depositNumber, depositorAddress);
+    }
+
+    public void remove(long depositNumber) {
+        liveDeposits.remove(depositNumber);
+    }
+
+    /**
+     * 已退出但仍在列表中的失效项数量，包括分批清除时空出尚未删除的位置
+     */
+    public int getStaleCount() {
+        return depositNumbers.size() - liveDeposits.size();
+    }
+
+    /**
+     * 查找解锁高度在[fromHeight, toHeight]之间、抵押编号大于afterDepositNumber的抵押编号
+     * 最多返回limit个，最多检查maxScan个索引项(包括已退出的失效项)
+     *
+     * @param result 查找到的抵押编号
+     * @return 未检查完区间时返回最后检查的抵押编号，作为下次查询的afterDepositNumber；已检查完返回-1
+     */
+    public long findBetween(long fromHeight, long toHeight, long afterDepositNumber, int limit, int maxScan, List<Long> result) {
+        int size = this.logicalSize();
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int index = this.physicalIndex(mid);
+            if (unlockHeights.get(index) < fromHeight || depositNumbers.get(index) <= afterDepositNumber) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        int scanned = 0;
+        for (int i = low; i < size; i++) {
+            int index = this.physicalIndex(i);
+            if (unlockHeights.get(index) > toHeight) {
+                return -1;
+            }
+            if (result.size() >= limit || scanned >= maxScan) {
+                return depositNumbers.get(this.physicalIndex(i - 1));
+            }
+            Long depositNumber = depositNumbers.get(index);
+            if (liveDeposits.containsKey(depositNumber)) {
+                result.add(depositNumber);
+            }
+            scanned++;
+        }
+        return -1;
+    }
+
+    public String getDepositorAddress(long depositNumber) {
+        return liveDeposits.get(depositNumber);
+    }
+
+    /**
+     * 分批清除已退出的抵押：从读取位置继续，把有效项前移到写入位置，读到末尾后删除空出的位置
+     * 每次最多处理maxCount个索引项，清除进度保存在合约中，下次调用继续
+     *
+     * @return 本次处理的索引项数量
+     */
+    public int compact(int maxCount) {
+        int count = 0;
+        int size = depositNumbers.size();
+        while (count < maxCount && compactReadIndex < size) {
+            Long depositNumber = depositNumbers.get(compactReadIndex);
+            if (liveDeposits.containsKey(depositNumber)) {
+                if (compactWriteIndex != compactReadIndex) {
+                    depositNumbers.set(compactWriteIndex, depositNumber);
+                    unlockHeights.set(compactWriteIndex, unlockHeights.get(compactReadIndex));
+                }
+                compactWriteIndex++;
+            }
+            compactReadIndex++;
+            count++;
+        }
+        // 从末尾删除空出的位置，每次删除的代价为O(1)
+        while (count < maxCount && compactReadIndex == size && size > compactWriteIndex) {
+            size--;
+            depositNumbers.remove(size);
+            unlockHeights.remove(size);
+            compactReadIndex = size;
+            count++;
+        }
+        if (compactReadIndex == size && compactWriteIndex == size) {
+            // 本轮清除完成，下次从头开始
+            compactReadIndex = 0;
+            compactWriteIndex = 0;
+        }
+        return count;
+    }
+
+    private int logicalSize() {
+        return compactWriteIndex + depositNumbers.size() - compactReadIndex;
+    }
+
+    private int physicalIndex(int logicalIndex) {
+        if (logicalIndex < compactWriteIndex) {
+            return logicalIndex;
+        }
+        return logicalIndex - compactWriteIndex + compactReadIndex;
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2017-2018 nuls.io
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.nuls.pocm.contract.model;
+
+import java.math.BigInteger;
+
+import static io.nuls.pocm.contract.util.PocmUtil.toNuls;
+
+/**
+ * 委托的外部共识节点
+ */
+public class ConsensusAgentInfo {
+    private String agentHash;
+    // 委托到该节点的委托列表
+    private ConsensusDepositList depositList = new ConsensusDepositList();
+    // 委托到该节点的金额
+    private BigInteger depositLockedAmount = BigInteger.ZERO;
+    // 本次交易中该节点的委托总额(含其他委托者)，委托前从共识模块读取，本次交易委托后累加
+    private BigInteger tempAgentTotalDeposit = BigInteger.ZERO;
+
+    public ConsensusAgentInfo(String agentHash) {
+        this.agentHash = agentHash;
+    }
+
+    public String getAgentHash() {
+        return agentHash;
+    }
+
+    public ConsensusDepositList getDepositList() {
+        return depositList;
+    }
+
+    public BigInteger getDepositLockedAmount() {
+        return depositLockedAmount;
+    }
+
+    public void setDepositLockedAmount(BigInteger depositLockedAmount) {
+        this.depositLockedAmount = depositLockedAmount;
+    }
+
+    public BigInteger getTempAgentTotalDeposit() {
+        return tempAgentTotalDeposit;
+    }
+
+    public void setTempAgentTotalDeposit(BigInteger tempAgentTotalDeposit) {
+        this.tempAgentTotalDeposit = tempAgentTotalDeposit;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"agentHash\":")
+                .append('\"').append(agentHash).append('\"');
+        sb.append(",\"depositList\":")
+                .append(depositList.toString());
+        sb.append(",\"depositLockedAmount\":")
+                .append('\"').append(toNuls(depositLockedAmount).toPlainString()).append('\"');
+        sb.append('}');
+        return sb.toString();
+    }
+}
@@ -24,6 +24,8 @@
 package io.nuls.pocm.contract.model;
 
 import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import static io.nuls.pocm.contract.util.PocmUtil.toNuls;
 
@@ -32,20 +34,74 @@ import static io.nuls.pocm.contract.util.PocmUtil.toNuls;
  * @date: 2019-05-08
  */
 public class ConsensusAwardInfo {
+    // 每na奖励累加值的精度
+    public static final BigInteger ACC_PRECISION = BigInteger.TEN.pow(18);
+
     private String address;
     private BigInteger availableAward;
     private BigInteger transferedAward;
+    // 分配给抵押者、尚未领取的共识奖励
+    private BigInteger depositorAward;
+    // 每抵押1na累计分得的共识奖励(乘以ACC_PRECISION)
+    private BigInteger accAwardPerNa;
+    // 累计收到的共识奖励，k-v：奖励地址-累计金额
+    private Map<String, BigInteger> totalAwardBySource = new LinkedHashMap<String, BigInteger>();
+    // 最近一次收到奖励的区块高度
+    private long lastAwardHeight;
+    // 最近一次收到奖励的区块中的奖励合计及奖励条数
+    private BigInteger lastBlockAward = BigInteger.ZERO;
+    private int lastBlockAwardCount;
 
     public ConsensusAwardInfo(String address) {
         this.address = address;
         availableAward = BigInteger.ZERO;
         transferedAward = BigInteger.ZERO;
+        depositorAward = BigInteger.ZERO;
+        accAwardPerNa = BigInteger.ZERO;
+    }
+
+    /**
+     * 记录一条共识奖励，同一区块的奖励合并为一条区块汇总
+     */
+    public void record(String source, BigInteger value, long height) {
+        BigInteger total = totalAwardBySource.get(source);
+        totalAwardBySource.put(source, total == null ? value : total.add(value));
+        if (height != lastAwardHeight) {
+            lastAwardHeight = height;
+            lastBlockAward = BigInteger.ZERO;
+            lastBlockAwardCount = 0;
+        }
+        lastBlockAward = lastBlockAward.add(value);
+        lastBlockAwardCount++;
     }
 
     public void add(BigInteger value) {
         availableAward = availableAward.add(value);
     }
 
+    /**
+     * 按抵押金额平分给所有抵押者，只更新累加值，抵押者领取时再结算
+     *
+     * @param value      分配给抵押者的奖励
+     * @param totalStake 总抵押金额
+     */
+    public void addDepositorAward(BigInteger value, BigInteger totalStake) {
+        depositorAward = depositorAward.add(value);
+        accAwardPerNa = accAwardPerNa.add(value.multiply(ACC_PRECISION).divide(totalStake));
+    }
+
+    public void subtractDepositorAward(BigInteger value) {
+        depositorAward = depositorAward.subtract(value);
+    }
+
+    public BigInteger getDepositorAward() {
+        return depositorAward;
+    }
+
+    public BigInteger getAccAwardPerNa() {
+        return accAwardPerNa;
+    }
+
     public BigInteger getAvailableAward() {
         return availableAward;
     }
@@ -55,6 +111,30 @@ public class ConsensusAwardInfo {
         availableAward = BigInteger.ZERO;
     }
 
+    /**
+     * 共识奖励汇总：各奖励地址累计金额及最近一个区块的奖励合计
+     */
+    public String summary() {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"lastAwardHeight\":")
+                .append(lastAwardHeight);
+        sb.append(",\"lastBlockAward\":")
+                .append('\"').append(toNuls(lastBlockAward).toPlainString()).append('\"');
+        sb.append(",\"lastBlockAwardCount\":")
+                .append(lastBlockAwardCount);
+        sb.append(",\"totalAwardBySource\":{");
+        for (Map.Entry<String, BigInteger> entry : totalAwardBySource.entrySet()) {
+            sb.append('\"').append(entry.getKey()).append("\":")
+                    .append('\"').append(toNuls(entry.getValue()).toPlainString()).append('\"').append(',');
+        }
+        if (!totalAwardBySource.isEmpty()) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+        sb.append('}');
+        sb.append('}');
+        return sb.toString();
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("{");
@@ -64,6 +144,10 @@ public class ConsensusAwardInfo {
                 .append('\"').append(toNuls(availableAward).toPlainString()).append('\"');
         sb.append(",\"transferedAward\":")
                 .append('\"').append(toNuls(transferedAward).toPlainString()).append('\"');
+        sb.append(",\"depositorAward\":")
+                .append('\"').append(toNuls(depositorAward).toPlainString()).append('\"');
+        sb.append(",\"accAwardPerNa\":")
+                .append('\"').append(accAwardPerNa.toString()).append('\"');
         sb.append('}');
         return sb.toString();
     }
@@ -0,0 +1,147 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2017-2018 nuls.io
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.nuls.pocm.contract.model;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按委托金额排序的委托列表，相同金额的委托放在同一个桶中
+ * 新增、删除最小委托、查找不小于指定金额的最小委托均为O(log n)
+ */
+public class ConsensusDepositList {
+    // k-v：委托金额-该金额的委托
+    private TreeMap<BigInteger, LinkedList<ConsensusDepositInfo>> deposits = new TreeMap<BigInteger, LinkedList<ConsensusDepositInfo>>();
+    private int size = 0;
+
+    public void add(ConsensusDepositInfo info) {
+        LinkedList<ConsensusDepositInfo> bucket = deposits.get(info.getDeposit());
+        if (bucket == null) {
+            bucket = new LinkedList<ConsensusDepositInfo>();
+            deposits.put(info.getDeposit(), bucket);
+        }
+        bucket.addLast(info);
+        size++;
+    }
+
+    /**
+     * 删除金额最小的委托
+     */
+    public ConsensusDepositInfo removeSmallest() {
+        if (size == 0) {
+            return null;
+        }
+        return this.removeFromBucket(deposits.firstKey());
+    }
+
+    /**
+     * 金额最大的委托，不存在时返回null
+     */
+    public ConsensusDepositInfo largest() {
+        if (size == 0) {
+            return null;
+        }
+        return deposits.lastEntry().getValue().getLast();
+    }
+
+    /**
+     * 金额不小于amount的最小委托，不存在时返回null
+     */
+    public ConsensusDepositInfo ceiling(BigInteger amount) {
+        Map.Entry<BigInteger, LinkedList<ConsensusDepositInfo>> entry = deposits.ceilingEntry(amount);
+        if (entry == null) {
+            return null;
+        }
+        return entry.getValue().getLast();
+    }
+
+    /**
+     * 删除指定的委托
+     */
+    public boolean remove(ConsensusDepositInfo info) {
+        LinkedList<ConsensusDepositInfo> bucket = deposits.get(info.getDeposit());
+        if (bucket == null || !bucket.remove(info)) {
+            return false;
+        }
+        if (bucket.isEmpty()) {
+            deposits.remove(info.getDeposit());
+        }
+        size--;
+        return true;
+    }
+
+    /**
+     * 所有委托的金额
+     */
+    public List<BigInteger> amounts() {
+        List<BigInteger> result = new ArrayList<BigInteger>(size);
+        for (Map.Entry<BigInteger, LinkedList<ConsensusDepositInfo>> entry : deposits.entrySet()) {
+            for (int i = 0; i < entry.getValue().size(); i++) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        deposits.clear();
+        size = 0;
+    }
+
+    private ConsensusDepositInfo removeFromBucket(BigInteger key) {
+        LinkedList<ConsensusDepositInfo> bucket = deposits.get(key);
+        ConsensusDepositInfo info = bucket.removeLast();
+        if (bucket.isEmpty()) {
+            deposits.remove(key);
+        }
+        size--;
+        return info;
+    }
+
+    /**
+     * 按委托金额降序输出
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<BigInteger, LinkedList<ConsensusDepositInfo>> entry : deposits.descendingMap().entrySet()) {
+            for (ConsensusDepositInfo info : entry.getValue()) {
+                sb.append(info.toString()).append(',');
+            }
+        }
+        if (size > 0) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+}
@@ -22,6 +22,18 @@ public class DepositInfo {
     //抵押笔数
     private int depositCount;
 
+    //所有抵押中最早的抵押高度
+    private long minDepositHeight;
+
+    //所有抵押中最晚的抵押高度（退出抵押后不回退，已退出的抵押必然已解锁，不影响是否全部解锁的判断）
+    private long maxDepositHeight;
+
+    //已结算到当前抵押金额的共识奖励累加值
+    private BigInteger consensusAwardDebt=BigInteger.ZERO;
+
+    //已结算、尚未领取的共识奖励（单位：na）
+    private BigInteger pendingConsensusAward=BigInteger.ZERO;
+
     /**
      * 抵押详细信息列表
      */
@@ -36,6 +48,10 @@ public class DepositInfo {
         this.depositorAddress=info.depositorAddress;
         this.depositTotalAmount=info.depositTotalAmount;
         this.depositCount=info.depositCount;
+        this.minDepositHeight=info.minDepositHeight;
+        this.maxDepositHeight=info.maxDepositHeight;
+        this.consensusAwardDebt=info.consensusAwardDebt;
+        this.pendingConsensusAward=info.pendingConsensusAward;
         this.depositDetailInfos=info.depositDetailInfos;
     }
 
@@ -72,6 +88,48 @@ public class DepositInfo {
         this.depositorAddress = depositorAddress;
     }
 
+    public long getMinDepositHeight() {
+        return minDepositHeight;
+    }
+
+    public long getMaxDepositHeight() {
+        return maxDepositHeight;
+    }
+
+    public BigInteger getConsensusAwardDebt() {
+        return consensusAwardDebt;
+    }
+
+    public void setConsensusAwardDebt(BigInteger consensusAwardDebt) {
+        this.consensusAwardDebt = consensusAwardDebt;
+    }
+
+    public BigInteger getPendingConsensusAward() {
+        return pendingConsensusAward;
+    }
+
+    public void setPendingConsensusAward(BigInteger pendingConsensusAward) {
+        this.pendingConsensusAward = pendingConsensusAward;
+    }
+
+    /**
+     * 加入抵押详细信息后更新最早、最晚抵押高度
+     * @param depositHeight
+     */
+    public void updateDepositHeight(long depositHeight){
+        if(depositDetailInfos.size()<=1){
+            minDepositHeight=depositHeight;
+            maxDepositHeight=depositHeight;
+            return;
+        }
+        if(depositHeight<minDepositHeight){
+            minDepositHeight=depositHeight;
+        }
+        if(depositHeight>maxDepositHeight){
+            maxDepositHeight=depositHeight;
+        }
+    }
+
     /**
      * 根据抵押编号获取抵押详细信息
      * @param depositNumber
@@ -88,20 +146,32 @@ public class DepositInfo {
      * @param depositNumber
      */
     public void removeDepositDetailInfoByNumber(long depositNumber){
-        depositDetailInfos.remove(depositNumber);
+        DepositDetailInfo info=depositDetailInfos.remove(depositNumber);
+        // 删除的是最早的抵押，重新计算最早抵押高度
+        if(info!=null && info.getDepositHeight()==minDepositHeight && depositDetailInfos.size()>0){
+            long minHeight=maxDepositHeight;
+            for (DepositDetailInfo detailInfo : depositDetailInfos.values()) {
+                if(detailInfo.getDepositHeight()<minHeight){
+                    minHeight=detailInfo.getDepositHeight();
+                }
+            }
+            minDepositHeight=minHeight;
+        }
     }
 
     public void clearDepositDetailInfos(){
         depositDetailInfos.clear();
         depositCount=0;
         depositTotalAmount=BigInteger.ZERO;
+        minDepositHeight=0;
+        maxDepositHeight=0;
     }
 
 
     @Override
     public String toString(){
         return  "{depositTotalAmount:"+depositTotalAmount+",depositorAddress:"+depositorAddress
-                +",depositCount:"+depositCount+",depositDetailInfos:"+convertMapToString()+"}";
+                +",depositCount:"+depositCount+",minDepositHeight:"+minDepositHeight+",maxDepositHeight:"+maxDepositHeight+",pendingConsensusAward:"+pendingConsensusAward+",depositDetailInfos:"+convertMapToString()+"}";
     }
 
     private  String convertMapToString(){
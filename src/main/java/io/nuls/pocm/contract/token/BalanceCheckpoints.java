@@ -0,0 +1,68 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2017-2018 nuls.io
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.nuls.pocm.contract.token;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 余额检查点，按区块高度升序记录余额变动，同一区块内多次变动只保留最后的余额
+ */
+public class BalanceCheckpoints {
+    // 余额变动的区块高度列表，升序
+    private List<Long> heights = new ArrayList<Long>();
+    // 余额列表，与高度列表一一对应
+    private List<BigInteger> balances = new ArrayList<BigInteger>();
+
+    public void record(long height, BigInteger balance) {
+        int size = heights.size();
+        if (size > 0 && heights.get(size - 1) == height) {
+            balances.set(size - 1, balance);
+            return;
+        }
+        heights.add(height);
+        balances.add(balance);
+    }
+
+    /**
+     * 指定区块高度结束时的余额，二分查找高度不大于height的最后一个检查点
+     */
+    public BigInteger balanceAt(long height) {
+        int low = 0;
+        int high = heights.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (heights.get(mid) <= height) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == 0) {
+            return BigInteger.ZERO;
+        }
+        return balances.get(low - 1);
+    }
+}
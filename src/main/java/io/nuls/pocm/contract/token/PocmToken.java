@@ -1,7 +1,9 @@
 package io.nuls.pocm.contract.token;
 
+import io.nuls.pocm.contract.event.BatchTransferEvent;
 import io.nuls.pocm.contract.ownership.Ownable;
 import io.nuls.contract.sdk.Address;
+import io.nuls.contract.sdk.Block;
 import io.nuls.contract.sdk.Msg;
 import io.nuls.contract.sdk.annotation.Required;
 import io.nuls.contract.sdk.annotation.View;
@@ -25,7 +27,14 @@ public class PocmToken extends Ownable implements Token{
     private final int decimals;
     private BigInteger totalSupply;
 
+    // 单次批量转账的最大接收地址数量
+    private static final int MAX_BATCH_TRANSFER_COUNT = 100;
+
     private Map<Address, BigInteger> balances = new HashMap<Address, BigInteger>();
+    // 余额大于0的地址数量，余额为0的地址不保存在balances中
+    private int holderCount = 0;
+    // 每个地址的余额检查点，用于查询历史余额
+    private Map<Address, BalanceCheckpoints> checkpoints = new HashMap<Address, BalanceCheckpoints>();
     private Map<Address, Map<Address, BigInteger>> allowed = new HashMap<Address, Map<Address, BigInteger>>();
 
     @Override
@@ -49,7 +58,7 @@ public class PocmToken extends Ownable implements Token{
     @Override
     @View
     public BigInteger totalSupply() {
-        return totalSupply;
+        return totalSupply.add(pendingTotalSupply());
     }
 
     public PocmToken(String name, String symbol, BigInteger initialAmount, int decimals,
@@ -57,7 +66,6 @@ public class PocmToken extends Ownable implements Token{
         BigInteger receiverTotalAmount =BigInteger.ZERO;
         if(receiverAddress!=null && receiverAmount!=null){
             require(receiverAddress.length==receiverAmount.length,"接收Token的地址个数与设置的数量个数不一致");
-            require(convertStringToAddres(receiverAddress)!=null,"接收Token的地址中有非法地址");
             require(checkAmount(receiverAmount),"接收数量的数组中有非法输入");
             receiverTotalAmount =sumAmount(receiverAmount);
             require(initialAmount.compareTo(receiverTotalAmount)>=0,"初始化发放的Token数量不能超过总发行量");
@@ -88,6 +96,7 @@ public class PocmToken extends Ownable implements Token{
     @Override
     public boolean transferFrom(@Required Address from, @Required Address to, @Required BigInteger value) {
         subtractAllowed(from, Msg.sender(), value);
+        settlePendingBalance(from);
         subtractBalance(from, value);
         addBalance(to, value);
         emit(new TransferEvent(from, to, value));
@@ -98,21 +107,60 @@ public class PocmToken extends Ownable implements Token{
     @View
     public BigInteger balanceOf(@Required Address owner) {
         require(owner != null);
-        BigInteger balance = balances.get(owner);
-        if (balance == null) {
-            balance = BigInteger.ZERO;
+        return storedBalanceOf(owner).add(pendingBalanceOf(owner));
+    }
+
+    /**
+     * 持有Token(余额大于0)的地址数量
+     */
+    @View
+    public int holderCount() {
+        return holderCount;
+    }
+
+    /**
+     * 查询指定区块高度结束时的余额，不包含未领取的挖矿奖励
+     */
+    @View
+    public BigInteger balanceOfAt(@Required Address owner, @Required long height) {
+        require(height >= 0, "区块高度应该大于等于0");
+        BalanceCheckpoints ownerCheckpoints = checkpoints.get(owner);
+        if (ownerCheckpoints == null) {
+            return BigInteger.ZERO;
         }
-        return balance;
+        return ownerCheckpoints.balanceAt(height);
     }
 
     @Override
     public boolean transfer(@Required Address to, @Required BigInteger value) {
+        settlePendingBalance(Msg.sender());
         subtractBalance(Msg.sender(), value);
         addBalance(to, value);
         emit(new TransferEvent(Msg.sender(), to, value));
         return true;
     }
 
+    /**
+     * 批量转账：先校验转出总额，一次扣减转出地址余额，再依次增加接收地址余额，只发送一个批量转账事件
+     */
+    public boolean transferBatch(@Required Address[] to, @Required BigInteger[] values) {
+        require(to.length == values.length, "接收地址个数与转账数量个数不一致");
+        require(to.length > 0 && to.length <= MAX_BATCH_TRANSFER_COUNT, "接收地址个数应该在1到" + MAX_BATCH_TRANSFER_COUNT + "之间");
+        BigInteger total = BigInteger.ZERO;
+        for (BigInteger value : values) {
+            check(value, "The value must be greater than or equal to 0.");
+            total = total.add(value);
+        }
+        Address from = Msg.sender();
+        settlePendingBalance(from);
+        subtractBalance(from, total);
+        for (int i = 0; i < to.length; i++) {
+            addBalance(to[i], values[i]);
+        }
+        emit(new BatchTransferEvent(from, to, values, total));
+        return true;
+    }
+
     @Override
     public boolean approve(@Required Address spender, @Required BigInteger value) {
         setAllowed(Msg.sender(), spender, value);
@@ -154,6 +202,16 @@ public class PocmToken extends Ownable implements Token{
     private void setAllowed(Address address1, Address address2, BigInteger value) {
         check(value);
         Map<Address, BigInteger> address1Allowed = allowed.get(address1);
+        if (value.compareTo(BigInteger.ZERO) == 0) {
+            // 授权额度为0时删除记录，没有任何授权时删除该地址的授权表
+            if (address1Allowed != null) {
+                address1Allowed.remove(address2);
+                if (address1Allowed.isEmpty()) {
+                    allowed.remove(address1);
+                }
+            }
+            return;
+        }
         if (address1Allowed == null) {
             address1Allowed = new HashMap<Address, BigInteger>();
             allowed.put(address1, address1Allowed);
@@ -161,17 +219,69 @@ public class PocmToken extends Ownable implements Token{
         address1Allowed.put(address2, value);
     }
 
+    /**
+     * 尚未计入余额、转出前才发放的Token数量，计入balanceOf
+     */
+    protected BigInteger pendingBalanceOf(Address owner) {
+        return BigInteger.ZERO;
+    }
+
+    /**
+     * 所有地址尚未计入余额的Token数量之和，计入totalSupply
+     */
+    protected BigInteger pendingTotalSupply() {
+        return BigInteger.ZERO;
+    }
+
+    /**
+     * 转出前将尚未计入余额的Token发放到余额中
+     */
+    protected void settlePendingBalance(Address owner) {
+    }
+
+    private BigInteger storedBalanceOf(Address owner) {
+        BigInteger balance = balances.get(owner);
+        if (balance == null) {
+            balance = BigInteger.ZERO;
+        }
+        return balance;
+    }
+
     protected void addBalance(Address address, BigInteger value) {
-        BigInteger balance = balanceOf(address);
+        BigInteger balance = storedBalanceOf(address);
         check(value, "The value must be greater than or equal to 0.");
         check(balance);
-        balances.put(address, balance.add(value));
+        putBalance(address, balance.add(value));
     }
 
-    private void subtractBalance(Address address, BigInteger value) {
-        BigInteger balance = balanceOf(address);
+    protected void subtractBalance(Address address, BigInteger value) {
+        BigInteger balance = storedBalanceOf(address);
         check(balance, value, "Insufficient balance of token.");
-        balances.put(address, balance.subtract(value));
+        putBalance(address, balance.subtract(value));
+    }
+
+    private void putBalance(Address address, BigInteger balance) {
+        boolean wasHolder = balances.containsKey(address);
+        if (balance.compareTo(BigInteger.ZERO) == 0) {
+            balances.remove(address);
+            if (wasHolder) {
+                holderCount--;
+            }
+        } else {
+            balances.put(address, balance);
+            if (!wasHolder) {
+                holderCount++;
+            }
+        }
+        BalanceCheckpoints addressCheckpoints = checkpoints.get(address);
+        if (addressCheckpoints == null) {
+            if (!wasHolder && balance.compareTo(BigInteger.ZERO) == 0) {
+                return;
+            }
+            addressCheckpoints = new BalanceCheckpoints();
+            checkpoints.put(address, addressCheckpoints);
+        }
+        addressCheckpoints.record(Block.number(), balance);
     }
 
     private void check(BigInteger value) {
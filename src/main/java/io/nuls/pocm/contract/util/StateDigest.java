@@ -0,0 +1,74 @@
+/**
+ * MIT License
+ * <p>
+ * Copyright (c) 2017-2018 nuls.io
+ * <p>
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ * <p>
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ * <p>
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.nuls.pocm.contract.util;
+
+import java.math.BigInteger;
+
+import static io.nuls.contract.sdk.Utils.sha3;
+
+/**
+ * 状态摘要：所有有效记录的sha3值按2^256取模累加
+ * 与记录写入顺序无关，新增记录时加上其哈希，删除记录时减去其哈希，修改记录即先删除旧记录再新增新记录
+ */
+public class StateDigest {
+
+    private static final BigInteger MODULUS = BigInteger.ONE.shiftLeft(256);
+
+    private BigInteger digest = BigInteger.ZERO;
+    // 参与摘要的记录数量
+    private long recordCount = 0L;
+
+    public void add(String record) {
+        digest = digest.add(hash(record)).mod(MODULUS);
+        recordCount++;
+    }
+
+    public void remove(String record) {
+        digest = digest.subtract(hash(record)).mod(MODULUS);
+        recordCount--;
+    }
+
+    public String getDigest() {
+        return digest.toString(16);
+    }
+
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    private BigInteger hash(String record) {
+        return new BigInteger(sha3(record), 16);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("{");
+        sb.append("\"digest\":")
+                .append('\"').append(getDigest()).append('\"');
+        sb.append(",\"recordCount\":")
+                .append(recordCount);
+        sb.append('}');
+        return sb.toString();
+    }
+}